@@ -7,14 +7,35 @@ package fi.luontola.cqrshotel;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import fi.luontola.cqrshotel.framework.consistency.ObservedPosition;
+import fi.luontola.cqrshotel.framework.eventstore.EventCodec;
 import fi.luontola.cqrshotel.framework.eventstore.EventStore;
+import fi.luontola.cqrshotel.framework.eventstore.EventTypeRegistry;
+import fi.luontola.cqrshotel.framework.eventstore.JsonEventCodec;
+import fi.luontola.cqrshotel.framework.eventstore.PsqlEventNotifications;
 import fi.luontola.cqrshotel.framework.eventstore.PsqlEventStore;
+import fi.luontola.cqrshotel.framework.eventstore.SmileEventCodec;
+import fi.luontola.cqrshotel.framework.processes.events.ProcessStarted;
+import fi.luontola.cqrshotel.framework.processes.events.ProcessSubscribedToTopic;
+import fi.luontola.cqrshotel.framework.processes.events.ProcessUnsubscribedFromTopic;
+import fi.luontola.cqrshotel.framework.snapshots.PsqlSnapshotStore;
+import fi.luontola.cqrshotel.framework.snapshots.SnapshotStore;
 import fi.luontola.cqrshotel.framework.util.UUIDs;
 import fi.luontola.cqrshotel.pricing.PricingEngine;
 import fi.luontola.cqrshotel.pricing.RandomPricingEngine;
+import fi.luontola.cqrshotel.reservation.events.ContactInformationUpdated;
+import fi.luontola.cqrshotel.reservation.events.LineItemCreated;
+import fi.luontola.cqrshotel.reservation.events.PriceOffered;
+import fi.luontola.cqrshotel.reservation.events.ReservationCreated;
+import fi.luontola.cqrshotel.reservation.events.RoomAssigned;
+import fi.luontola.cqrshotel.reservation.events.SearchedForAccommodation;
 import fi.luontola.cqrshotel.room.commands.CreateRoom;
+import fi.luontola.cqrshotel.room.events.RoomCreated;
+import fi.luontola.cqrshotel.room.events.RoomOccupied;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
@@ -23,11 +44,19 @@ import javax.sql.DataSource;
 import java.time.Clock;
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @SpringBootApplication
 public class Application {
 
+    private static final Logger log = LoggerFactory.getLogger(Application.class);
+
     private static final Duration QUERY_TIMEOUT = Duration.ofSeconds(15);
+    private static final Duration EXPIRED_EVENTS_CLEANUP_INTERVAL = Duration.ofMinutes(10);
+    private static final Duration PENDING_EVENTS_SEQUENCING_INTERVAL = Duration.ofSeconds(1);
 
     public static void main(String[] args) throws Exception {
         var app = SpringApplication.run(Application.class, args);
@@ -45,13 +74,81 @@ public class Application {
     }
 
     @Bean
-    public Core core(EventStore eventStore, PricingEngine pricing, Clock clock, ObservedPosition observedPosition) {
-        return new Core(eventStore, pricing, clock, observedPosition);
+    public Core core(EventStore eventStore, SnapshotStore snapshotStore, PricingEngine pricing, Clock clock, ObservedPosition observedPosition) {
+        return new Core(eventStore, snapshotStore, pricing, clock, observedPosition);
+    }
+
+    @Bean
+    public PsqlEventStore eventStore(DataSource dataSource, ReadReplica readReplica, EventCodec eventCodec, EventTypeRegistry eventTypes) {
+        List<EventCodec> codecs = List.of(
+                eventCodec,
+                new JsonEventCodec(configureObjectMapper(new ObjectMapper())));
+        var eventStore = new PsqlEventStore(dataSource, codecs, eventTypes, PsqlEventStore.DEFAULT_FETCH_SIZE, PsqlEventStore.Sequencing.SEQUENCER);
+        readReplica.getDataSource().ifPresent(eventStore::enableReadReplica);
+        return eventStore;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ScheduledExecutorService pendingEventsSequencer(PsqlEventStore eventStore) {
+        var executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                // the saves sequence their own events; this is for the events of a crashed writer
+                eventStore.sequencePendingEvents();
+            } catch (Throwable t) {
+                // an uncaught exception would stop the scheduling
+                log.error("Failed to sequence pending events", t);
+            }
+        }, PENDING_EVENTS_SEQUENCING_INTERVAL.toMillis(), PENDING_EVENTS_SEQUENCING_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ScheduledExecutorService expiredEventsCleaner(PsqlEventStore eventStore, Clock clock) {
+        var executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                eventStore.deleteExpiredEvents(clock.instant());
+            } catch (Throwable t) {
+                // an uncaught exception would stop the scheduling
+                log.error("Failed to delete expired events", t);
+            }
+        }, EXPIRED_EVENTS_CLEANUP_INTERVAL.toMillis(), EXPIRED_EVENTS_CLEANUP_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    @Bean
+    public EventCodec eventCodec() {
+        // the event store has its own ObjectMappers, so that the storage format is independent from the API
+        return new SmileEventCodec(configureObjectMapper(new ObjectMapper(new SmileFactory())));
     }
 
     @Bean
-    public EventStore eventStore(DataSource dataSource, ObjectMapper objectMapper) {
-        return new PsqlEventStore(dataSource, objectMapper);
+    public SnapshotStore snapshotStore(DataSource dataSource, EventCodec eventCodec) {
+        return new PsqlSnapshotStore(dataSource, eventCodec);
+    }
+
+    @Bean
+    public EventTypeRegistry eventTypes() {
+        // the IDs are stored with the events, so they must never be changed
+        return new EventTypeRegistry()
+                .register("ProcessStarted", ProcessStarted.class)
+                .register("ProcessSubscribedToTopic", ProcessSubscribedToTopic.class)
+                .register("ProcessUnsubscribedFromTopic", ProcessUnsubscribedFromTopic.class)
+                .register("ContactInformationUpdated", ContactInformationUpdated.class)
+                .register("LineItemCreated", LineItemCreated.class)
+                .register("PriceOffered", PriceOffered.class)
+                .register("ReservationCreated", ReservationCreated.class)
+                .register("RoomAssigned", RoomAssigned.class)
+                .register("SearchedForAccommodation", SearchedForAccommodation.class)
+                .register("RoomCreated", RoomCreated.class)
+                .register("RoomOccupied", RoomOccupied.class);
+    }
+
+    @Bean
+    public PsqlEventNotifications eventNotifications(DataSource dataSource, Core core) {
+        // keeps the projections up to date also with events saved by other instances of this application
+        return new PsqlEventNotifications(dataSource, position -> core.updateProjections());
     }
 
     @Bean
@@ -71,10 +168,14 @@ public class Application {
 
     @Bean
     public ObjectMapper jacksonObjectMapper() {
-        var om = new ObjectMapper();
+        var om = configureObjectMapper(new ObjectMapper());
+        om.configure(SerializationFeature.INDENT_OUTPUT, true);
+        return om;
+    }
+
+    public static ObjectMapper configureObjectMapper(ObjectMapper om) {
         om.registerModules(new JavaTimeModule(), new MoneyModule());
         om.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-        om.configure(SerializationFeature.INDENT_OUTPUT, true);
         om.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
         om.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         om.configure(DeserializationFeature.FAIL_ON_NUMBERS_FOR_ENUMS, true);
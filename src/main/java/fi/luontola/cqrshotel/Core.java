@@ -19,6 +19,7 @@ import fi.luontola.cqrshotel.framework.Message;
 import fi.luontola.cqrshotel.framework.MessageGateway;
 import fi.luontola.cqrshotel.framework.Publisher;
 import fi.luontola.cqrshotel.framework.Query;
+import fi.luontola.cqrshotel.framework.Snapshottable;
 import fi.luontola.cqrshotel.framework.consistency.ObservedPosition;
 import fi.luontola.cqrshotel.framework.consistency.UpdateObservedPositionAfterCommit;
 import fi.luontola.cqrshotel.framework.consistency.WaitForProjectionToUpdate;
@@ -28,8 +29,11 @@ import fi.luontola.cqrshotel.framework.processes.ProcessManagersProjectionAdapte
 import fi.luontola.cqrshotel.framework.processes.ProcessRepo;
 import fi.luontola.cqrshotel.framework.projections.InMemoryProjection;
 import fi.luontola.cqrshotel.framework.projections.Projection;
+import fi.luontola.cqrshotel.framework.projections.SharedEventReader;
 import fi.luontola.cqrshotel.framework.projections.UpdatableProjection;
 import fi.luontola.cqrshotel.framework.projections.UpdateProjectionsAfterHandling;
+import fi.luontola.cqrshotel.framework.snapshots.InMemorySnapshotStore;
+import fi.luontola.cqrshotel.framework.snapshots.SnapshotStore;
 import fi.luontola.cqrshotel.framework.util.WorkersPool;
 import fi.luontola.cqrshotel.pricing.PricingEngine;
 import fi.luontola.cqrshotel.reservation.ReservationProcess;
@@ -77,28 +81,40 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public class Core {
 
     private static final Logger log = LoggerFactory.getLogger(Core.class);
 
+    private static final int SNAPSHOT_INTERVAL = 100;
+    private static final long PROJECTION_SNAPSHOT_INTERVAL = 10_000;
+    private static final int AGGREGATE_CACHE_SIZE = 1000;
+
     private final EventStore eventStore;
+    private final SnapshotStore snapshotStore;
     private final ObservedPosition observedPosition;
 
     private final List<ProjectionConfig<?>> projections = new ArrayList<>();
+    private final SharedEventReader eventReader;
     private final WorkersPool projectionsUpdater;
 
     private final Handler<Command, Commit> commandDispatcher;
     private final Handler<Query, Object> queryDispatcher;
 
     public Core(EventStore eventStore, PricingEngine pricing, Clock clock, ObservedPosition observedPosition) {
+        this(eventStore, new InMemorySnapshotStore(), pricing, clock, observedPosition);
+    }
+
+    public Core(EventStore eventStore, SnapshotStore snapshotStore, PricingEngine pricing, Clock clock, ObservedPosition observedPosition) {
         this.eventStore = eventStore;
+        this.snapshotStore = snapshotStore;
         this.observedPosition = observedPosition;
         Publisher publisher = message -> handle(Envelope.newMessage(message));
 
         // projections
 
+        this.eventReader = new SharedEventReader(eventStore);
+
         addInMemoryProjection(new ReservationsView())
                 .addQueryHandler(FindAllReservationsHandler::new, FindAllReservations.class, ReservationDto[].class)
                 .addQueryHandler(FindReservationByIdHandler::new, FindReservationById.class, ReservationDto.class);
@@ -128,9 +144,7 @@ public class Core {
                 new ProcessManagers(new ProcessRepo(), gateway)
                         .register(ReservationProcess.class, ReservationProcess::entryPoint)));
 
-        this.projectionsUpdater = new WorkersPool(projections.stream()
-                .map(p -> (Runnable) p.updater::update)
-                .collect(Collectors.toList()));
+        this.projectionsUpdater = new WorkersPool(List.of(eventReader::update));
 
         // queries
 
@@ -146,11 +160,15 @@ public class Core {
         var commands = new CompositeHandler<Command, Commit>();
 
         var reservationRepo = new ReservationRepo(eventStore);
+        reservationRepo.enableSnapshots(snapshotStore, SNAPSHOT_INTERVAL);
+        reservationRepo.enableCache(AGGREGATE_CACHE_SIZE);
         commands.register(SearchForAccommodation.class, new SearchForAccommodationCommandHandler(reservationRepo, pricing, clock));
         commands.register(MakeReservation.class, new MakeReservationHandler(reservationRepo, clock));
         commands.register(AssignRoom.class, new AssignRoomHandler(reservationRepo, getQueryHandler(GetRoomById.class, RoomDto.class)));
 
         var roomRepo = new RoomRepo(eventStore);
+        roomRepo.enableSnapshots(snapshotStore, SNAPSHOT_INTERVAL);
+        roomRepo.enableCache(AGGREGATE_CACHE_SIZE);
         commands.register(CreateRoom.class, new CreateRoomHandler(roomRepo));
         commands.register(OccupyRoom.class, new OccupyRoomHandler(roomRepo));
         commands.register(OccupyAnyAvailableRoom.class, new OccupyAnyAvailableRoomHandler(publisher, getQueryHandler(GetAvailabilityByTimeRange.class, RoomAvailabilityDto[].class)));
@@ -160,7 +178,11 @@ public class Core {
     }
 
     private <T extends Projection> ProjectionConfig<T> addInMemoryProjection(T projection) {
-        var config = new ProjectionConfig<>(projection, new InMemoryProjection(projection, eventStore));
+        var updater = new InMemoryProjection(projection, eventStore);
+        if (projection instanceof Snapshottable) {
+            updater.enableSnapshots(snapshotStore, PROJECTION_SNAPSHOT_INTERVAL);
+        }
+        var config = new ProjectionConfig<>(projection, eventReader.subscribe(updater));
         projections.add(config);
         return config;
     }
@@ -176,6 +198,15 @@ public class Core {
     @PreDestroy
     public void shutdown() throws InterruptedException {
         projectionsUpdater.shutdown(Duration.ofSeconds(10));
+        eventReader.shutdown(Duration.ofSeconds(10));
+    }
+
+    /**
+     * Brings the projections up to date with the event store in the background.
+     * Should be called when somebody else has saved events to the event store.
+     */
+    public void updateProjections() {
+        projectionsUpdater.updateAll();
     }
 
     public Object handle(Message message) {
@@ -4,12 +4,16 @@
 
 package fi.luontola.cqrshotel;
 
+import com.zaxxer.hikari.HikariDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.flyway.FlywayProperties;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 
 import javax.annotation.PostConstruct;
@@ -40,4 +44,20 @@ public class JdbcConfiguration {
             log.info("Flyway locations: {}", flywayProperties.getLocations());
         }
     }
+
+    @Bean(destroyMethod = "close")
+    public ReadReplica readReplica(Environment environment) {
+        var dataSource = Binder.get(environment)
+                .bind("replica.datasource", DataSourceProperties.class)
+                .map(properties -> properties.initializeDataSourceBuilder()
+                        .type(HikariDataSource.class)
+                        .build())
+                .orElse(null);
+        if (dataSource != null) {
+            dataSource.setReadOnly(true);
+            dataSource.setPoolName("ReadReplicaPool");
+            log.info("Read replica URL: {}", dataSource.getJdbcUrl());
+        }
+        return new ReadReplica(dataSource);
+    }
 }
@@ -0,0 +1,36 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.util.Optional;
+
+/**
+ * An optional read-only replica of the database, configured with the {@code replica.datasource.*}
+ * properties. It's not a {@link DataSource} bean, so that Spring Boot still configures the primary
+ * {@code DataSource} from the {@code spring.datasource.*} properties.
+ */
+public class ReadReplica implements Closeable {
+
+    private final HikariDataSource dataSource;
+
+    public ReadReplica(HikariDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public Optional<DataSource> getDataSource() {
+        return Optional.ofNullable(dataSource);
+    }
+
+    @Override
+    public void close() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+}
@@ -4,6 +4,8 @@
 
 package fi.luontola.cqrshotel.capacity.queries;
 
+import fi.luontola.cqrshotel.framework.Snapshottable;
+import fi.luontola.cqrshotel.framework.eventstore.PersistedEvent;
 import fi.luontola.cqrshotel.framework.projections.AnnotatedProjection;
 import fi.luontola.cqrshotel.framework.util.EventListener;
 import fi.luontola.cqrshotel.reservation.events.ReservationCreated;
@@ -11,16 +13,31 @@ import fi.luontola.cqrshotel.room.events.RoomCreated;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
-public class CapacityView extends AnnotatedProjection {
+public class CapacityView extends AnnotatedProjection implements Snapshottable<CapacityViewSnapshot> {
 
     private final AtomicInteger numberOfRooms = new AtomicInteger(0);
     private final ConcurrentMap<LocalDate, AtomicInteger> reservationsByDate = new ConcurrentHashMap<>();
 
+    @Override
+    public CapacityViewSnapshot takeSnapshot() {
+        return new CapacityViewSnapshot(numberOfRooms.get(), reservationsByDate.entrySet().stream()
+                .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, entry -> entry.getValue().get())));
+    }
+
+    @Override
+    public void restoreSnapshot(CapacityViewSnapshot snapshot) {
+        numberOfRooms.set(snapshot.numberOfRooms);
+        snapshot.reservationsByDate.forEach((date, reserved) -> reservationsByDate.put(date, new AtomicInteger(reserved)));
+    }
+
     @EventListener
     public void apply(RoomCreated event) {
         numberOfRooms.incrementAndGet();
@@ -34,6 +51,37 @@ public class CapacityView extends AnnotatedProjection {
         }
     }
 
+    /**
+     * Coalesces the updates to the counters. Stops at the first event of some other type,
+     * so that it will be given to its event listener through {@link #apply}.
+     */
+    @Override
+    public int applyBatch(List<PersistedEvent> events) {
+        var newRooms = 0;
+        var newReservationsByDate = new HashMap<LocalDate, Integer>();
+        var applied = 0;
+        for (var persisted : events) {
+            var event = persisted.getEvent().payload;
+            if (event instanceof RoomCreated) {
+                newRooms++;
+            } else if (event instanceof ReservationCreated) {
+                var reservation = (ReservationCreated) event;
+                for (var date = reservation.arrival; date.isBefore(reservation.departure); date = date.plusDays(1)) {
+                    newReservationsByDate.merge(date, 1, Integer::sum);
+                }
+            } else {
+                break;
+            }
+            applied++;
+        }
+        // nothing can fail after this, so the batch is applied either fully or not at all
+        numberOfRooms.addAndGet(newRooms);
+        newReservationsByDate.forEach((date, count) ->
+                reservationsByDate.computeIfAbsent(date, _date -> new AtomicInteger(0))
+                        .addAndGet(count));
+        return applied;
+    }
+
     // queries
 
     public CapacityDto getCapacityByDate(LocalDate date) {
@@ -0,0 +1,25 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.capacity.queries;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import fi.luontola.cqrshotel.framework.util.Struct;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+class CapacityViewSnapshot extends Struct {
+
+    public final int numberOfRooms;
+    public final Map<LocalDate, Integer> reservationsByDate;
+
+    @JsonCreator
+    CapacityViewSnapshot(@JsonProperty("numberOfRooms") int numberOfRooms,
+                         @JsonProperty("reservationsByDate") Map<LocalDate, Integer> reservationsByDate) {
+        this.numberOfRooms = numberOfRooms;
+        this.reservationsByDate = reservationsByDate;
+    }
+}
@@ -4,6 +4,7 @@
 
 package fi.luontola.cqrshotel.framework;
 
+import fi.luontola.cqrshotel.framework.eventstore.PersistedEvent;
 import fi.luontola.cqrshotel.framework.util.EventListener;
 import fi.luontola.cqrshotel.framework.util.EventListeners;
 
@@ -68,12 +69,30 @@ public abstract class AggregateRoot {
         changes.clear();
     }
 
+    final void setVersion(int version) {
+        if (this.version != 0 || !changes.isEmpty()) {
+            throw new IllegalStateException("history already loaded");
+        }
+        this.version = version;
+    }
+
     public final void loadFromHistory(Iterable<Event> history) {
         for (var event : history) {
             applyChange(event);
         }
     }
 
+    /**
+     * Like {@link #loadFromHistory(Iterable)}, but takes the version from the persisted events,
+     * because the stream may have gaps where expired {@link ShortLivedEvent}s were deleted.
+     */
+    final void loadPersistedHistory(List<PersistedEvent> history) {
+        for (var event : history) {
+            eventListeners.send(event.getEvent().payload);
+            version = event.version;
+        }
+    }
+
     protected final void publish(Event event) {
         applyChange(event);
         changes.add(event);
@@ -1,14 +1,22 @@
-// Copyright © 2016-2018 Esko Luontola
+// Copyright © 2016-2019 Esko Luontola
 // This software is released under the Apache License 2.0.
 // The license text is at http://www.apache.org/licenses/LICENSE-2.0
 
 package fi.luontola.cqrshotel.framework;
 
 import fi.luontola.cqrshotel.framework.eventstore.EventStore;
+import fi.luontola.cqrshotel.framework.eventstore.OptimisticLockingException;
 import fi.luontola.cqrshotel.framework.eventstore.PersistedEvent;
+import fi.luontola.cqrshotel.framework.snapshots.Snapshot;
+import fi.luontola.cqrshotel.framework.snapshots.SnapshotStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.ParameterizedType;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -17,8 +25,14 @@ import java.util.stream.Collectors;
  */
 public class Repository<T extends AggregateRoot> {
 
+    private static final Logger log = LoggerFactory.getLogger(Repository.class);
+
     private final Class<T> aggregateType;
     private final EventStore eventStore;
+    private SnapshotStore snapshotStore;
+    private Class<?> snapshotType;
+    private int snapshotInterval;
+    private Map<UUID, T> cache;
 
     public Repository(EventStore eventStore) {
         this.aggregateType = getAggregateRootType();
@@ -36,6 +50,47 @@ public class Repository<T extends AggregateRoot> {
         }
     }
 
+    /**
+     * Makes loading an aggregate start from its latest snapshot instead of the beginning
+     * of its stream. A new snapshot is saved whenever the aggregate's version passes
+     * a multiple of the interval. The aggregate must implement {@link Snapshottable}.
+     */
+    public void enableSnapshots(SnapshotStore snapshotStore, int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive, but was " + interval);
+        }
+        this.snapshotType = getSnapshotType();
+        this.snapshotStore = snapshotStore;
+        this.snapshotInterval = interval;
+    }
+
+    private Class<?> getSnapshotType() {
+        for (var type : aggregateType.getGenericInterfaces()) {
+            if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == Snapshottable.class) {
+                return (Class<?>) ((ParameterizedType) type).getActualTypeArguments()[0];
+            }
+        }
+        throw new IllegalArgumentException("Not snapshottable: " + aggregateType);
+    }
+
+    /**
+     * Keeps up to {@code maxSize} of the most recently saved aggregates in memory,
+     * so that loading them again only needs to apply the events which were saved
+     * after them, typically none. An aggregate is removed from the cache for the
+     * duration of a command, so that concurrent commands never share an instance.
+     */
+    public void enableCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive, but was " + maxSize);
+        }
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, T> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
     public T create(UUID id) {
         try {
             T aggregate = aggregateType.newInstance();
@@ -47,12 +102,16 @@ public class Repository<T extends AggregateRoot> {
     }
 
     public T createOrGet(UUID id) {
-        T aggregate = create(id);
-        List<PersistedEvent> events = eventStore.getEventsForStream(id);
-        aggregate.loadFromHistory(
-                events.stream()
-                        .map(e -> e.event.payload)
-                        .collect(Collectors.toList()));
+        T aggregate = cache != null ? cache.remove(id) : null;
+        if (aggregate == null) {
+            aggregate = create(id);
+            if (snapshotStore != null) {
+                var target = aggregate;
+                snapshotStore.getSnapshot(id, snapshotType).ifPresent(snapshot -> restoreSnapshot(target, snapshot));
+            }
+        }
+        List<PersistedEvent> events = eventStore.getEventsForStream(id, aggregate.getVersion());
+        aggregate.loadPersistedHistory(events);
         return aggregate;
     }
 
@@ -68,8 +127,39 @@ public class Repository<T extends AggregateRoot> {
         List<Envelope<Event>> events = aggregate.getUncommittedChanges().stream()
                 .map(Envelope::newMessage)
                 .collect(Collectors.toList());
-        long committedPosition = eventStore.saveEvents(aggregate.getId(), events, expectedVersion);
+        long committedPosition;
+        try {
+            committedPosition = eventStore.saveEvents(aggregate.getId(), events, expectedVersion);
+        } catch (OptimisticLockingException e) {
+            if (cache != null) {
+                cache.remove(aggregate.getId());
+            }
+            throw e;
+        }
         aggregate.markChangesAsCommitted();
+        var newVersion = expectedVersion + events.size();
+        if (snapshotStore != null && newVersion / snapshotInterval > expectedVersion / snapshotInterval) {
+            saveSnapshot(aggregate, newVersion);
+        }
+        if (cache != null && aggregate.getVersion() == newVersion) {
+            cache.put(aggregate.getId(), aggregate);
+        }
         return new Commit(committedPosition);
     }
+
+    @SuppressWarnings("unchecked")
+    private void restoreSnapshot(T aggregate, Snapshot<?> snapshot) {
+        ((Snapshottable<Object>) aggregate).restoreSnapshot(snapshot.state);
+        aggregate.setVersion(snapshot.version);
+    }
+
+    private void saveSnapshot(T aggregate, int version) {
+        try {
+            var state = ((Snapshottable<?>) aggregate).takeSnapshot();
+            snapshotStore.saveSnapshot(aggregate.getId(), new Snapshot<>(version, state));
+        } catch (RuntimeException e) {
+            // the events were already saved, so the command has succeeded regardless of the snapshot
+            log.warn("Failed to save snapshot of {} version {}", aggregate.getId(), version, e);
+        }
+    }
 }
@@ -0,0 +1,19 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework;
+
+import java.time.Instant;
+
+/**
+ * Short-lived events are meaningful only until they expire, after which they may be
+ * deleted from the event store. Aggregates and projections MUST treat an expired event
+ * the same as if it had never happened, so that they behave the same after it's deleted.
+ * Since the deleted events leave gaps in the stream versions, the version of an aggregate
+ * is always that of its last persisted event.
+ */
+public interface ShortLivedEvent extends Event {
+
+    Instant expires();
+}
@@ -0,0 +1,24 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework;
+
+import fi.luontola.cqrshotel.framework.projections.InMemoryProjection;
+
+/**
+ * An {@link AggregateRoot} or projection which can save its state as a snapshot, so that
+ * loading it doesn't require replaying its whole history. See {@link Repository#enableSnapshots}
+ * and {@link InMemoryProjection#enableSnapshots}.
+ * <p>
+ * The snapshot MUST be an immutable copy of the state and serializable to JSON.
+ * Restoring a snapshot MUST result in the same state as replaying the events up to it.
+ *
+ * @param <S> the type of the snapshot
+ */
+public interface Snapshottable<S> {
+
+    S takeSnapshot();
+
+    void restoreSnapshot(S snapshot);
+}
@@ -0,0 +1,119 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * A list which only grows at the end. One thread at a time may append and publish
+ * elements, and any number of threads may read the published elements without locking.
+ * <p>
+ * The elements are stored in chunks which double in size, so growing never copies
+ * the existing elements. Published elements never change, so a range of them can be
+ * handed out as an immutable view instead of a copy.
+ */
+final class AppendOnlyLog<E> {
+
+    private static final int FIRST_CHUNK_BITS = 3;
+    private static final int FIRST_CHUNK_SIZE = 1 << FIRST_CHUNK_BITS;
+    private static final int MAX_SIZE = Integer.MAX_VALUE - FIRST_CHUNK_SIZE;
+
+    // chunk i holds FIRST_CHUNK_SIZE * 2^i elements
+    private final Object[][] chunks = new Object[Integer.SIZE - 1 - FIRST_CHUNK_BITS][];
+    private int appended = 0;
+    private volatile int published = 0;
+
+    /**
+     * Adds an element to the end, but keeps it invisible to readers until {@link #publish()}.
+     * Must not be called concurrently with itself or {@link #publish()}.
+     */
+    void append(E element) {
+        if (appended == MAX_SIZE) {
+            throw new IllegalStateException("log is full");
+        }
+        var p = appended + FIRST_CHUNK_SIZE;
+        var chunkIndex = chunkIndex(p);
+        var chunk = chunks[chunkIndex];
+        if (chunk == null) {
+            chunk = new Object[FIRST_CHUNK_SIZE << chunkIndex];
+            chunks[chunkIndex] = chunk;
+        }
+        chunk[p - Integer.highestOneBit(p)] = element;
+        appended++;
+    }
+
+    /**
+     * Makes all the appended elements visible to readers at once.
+     */
+    void publish() {
+        // the volatile write makes the earlier writes to the chunks visible to whoever reads the size
+        published = appended;
+    }
+
+    /**
+     * Forgets the elements which were appended after the last {@link #publish()}.
+     */
+    void discardUnpublished() {
+        for (var i = published; i < appended; i++) {
+            var p = i + FIRST_CHUNK_SIZE;
+            chunks[chunkIndex(p)][p - Integer.highestOneBit(p)] = null;
+        }
+        appended = published;
+    }
+
+    int size() {
+        return published;
+    }
+
+    E get(int index) {
+        Objects.checkIndex(index, published);
+        return elementAt(index);
+    }
+
+    /**
+     * Returns the published elements starting from {@code fromIndex}.
+     * Elements published later will not be included in the view.
+     */
+    List<E> view(int fromIndex) {
+        var toIndex = published;
+        Objects.checkFromToIndex(fromIndex, toIndex, toIndex);
+        return new View(fromIndex, toIndex);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementAt(int index) {
+        var p = index + FIRST_CHUNK_SIZE;
+        return (E) chunks[chunkIndex(p)][p - Integer.highestOneBit(p)];
+    }
+
+    private static int chunkIndex(int p) {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(p) - FIRST_CHUNK_BITS;
+    }
+
+    private class View extends AbstractList<E> implements RandomAccess {
+
+        private final int fromIndex;
+        private final int toIndex;
+
+        View(int fromIndex, int toIndex) {
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+        }
+
+        @Override
+        public E get(int index) {
+            Objects.checkIndex(index, toIndex - fromIndex);
+            return elementAt(fromIndex + index);
+        }
+
+        @Override
+        public int size() {
+            return toIndex - fromIndex;
+        }
+    }
+}
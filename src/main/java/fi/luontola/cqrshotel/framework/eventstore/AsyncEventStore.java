@@ -0,0 +1,40 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of {@link EventStore}. The futures complete exceptionally
+ * with the same exceptions which the synchronous methods would throw, for example
+ * {@link OptimisticLockingException}.
+ */
+public interface AsyncEventStore {
+
+    CompletableFuture<Long> saveEvents(UUID streamId, List<Envelope<Event>> newEvents, int expectedVersion);
+
+    CompletableFuture<Long> saveEvents(List<StreamAppend> appends);
+
+    default CompletableFuture<List<PersistedEvent>> getEventsForStream(UUID streamId) {
+        return getEventsForStream(streamId, EventStore.BEGINNING);
+    }
+
+    CompletableFuture<List<PersistedEvent>> getEventsForStream(UUID streamId, int sinceVersion);
+
+    default CompletableFuture<List<PersistedEvent>> getAllEvents() {
+        return getAllEvents(EventStore.BEGINNING);
+    }
+
+    CompletableFuture<List<PersistedEvent>> getAllEvents(long sincePosition);
+
+    CompletableFuture<Integer> getCurrentVersion(UUID streamId);
+
+    CompletableFuture<Long> getCurrentPosition();
+}
@@ -0,0 +1,34 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+
+/**
+ * Storage format of the event payloads and metadata.
+ * The ID is stored with every event, so that events written with
+ * an earlier codec can still be read after changing the codec.
+ */
+public interface EventCodec {
+
+    int getId();
+
+    byte[] serialize(Object value);
+
+    <T> T deserialize(byte[] bytes, Class<T> type);
+
+    /**
+     * Reads an event which was saved with its {@link EventMetadata} serialized separately.
+     * Called for every event during a projection replay, so it should avoid unnecessary work.
+     */
+    Envelope<Event> deserializeEvent(byte[] data, byte[] metadata, EventTypeRegistry eventTypes);
+
+    /**
+     * Reads only the type ID from the {@link EventMetadata}, so that an event can be
+     * routed or skipped without deserializing it.
+     */
+    String readEventType(byte[] metadata);
+}
@@ -1,4 +1,4 @@
-// Copyright © 2016-2018 Esko Luontola
+// Copyright © 2016-2019 Esko Luontola
 // This software is released under the Apache License 2.0.
 // The license text is at http://www.apache.org/licenses/LICENSE-2.0
 
@@ -8,7 +8,10 @@ import fi.luontola.cqrshotel.framework.Envelope;
 import fi.luontola.cqrshotel.framework.Event;
 
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public interface EventStore {
 
@@ -16,6 +19,15 @@ public interface EventStore {
 
     long saveEvents(UUID streamId, List<Envelope<Event>> newEvents, int expectedVersion);
 
+    /**
+     * Appends events to many streams atomically. If any of the streams is not at its
+     * expected version, nothing is saved. A stream may appear only once per call.
+     * The events get consecutive global positions in the order of the appends.
+     *
+     * @return the global position of the last saved event
+     */
+    long saveEvents(List<StreamAppend> appends);
+
     default List<PersistedEvent> getEventsForStream(UUID streamId) {
         return getEventsForStream(streamId, BEGINNING);
     }
@@ -28,6 +40,30 @@ public interface EventStore {
 
     List<PersistedEvent> getAllEvents(long sincePosition);
 
+    /**
+     * Reads from the global log only the events of the given types. Stores which can
+     * filter the events before reading them should override this.
+     */
+    default List<PersistedEvent> getAllEvents(long sincePosition, Set<Class<? extends Event>> eventTypes) {
+        try (var events = streamAllEvents(sincePosition, eventTypes)) {
+            return events.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Reads the global log lazily, without keeping all the events in memory at the same time.
+     * The returned stream holds resources and MUST be closed, preferably with try-with-resources.
+     */
+    Stream<PersistedEvent> streamAllEvents(long sincePosition);
+
+    /**
+     * Like {@link #streamAllEvents(long)} but only the events of the given types.
+     */
+    default Stream<PersistedEvent> streamAllEvents(long sincePosition, Set<Class<? extends Event>> eventTypes) {
+        return streamAllEvents(sincePosition)
+                .filter(event -> eventTypes.contains(event.eventType));
+    }
+
     int getCurrentVersion(UUID streamId);
 
     long getCurrentPosition();
@@ -0,0 +1,60 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import fi.luontola.cqrshotel.framework.Event;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short IDs for the event types, so that every stored event doesn't need to
+ * carry its full class name. The IDs must never change after events have been
+ * stored with them. Unregistered types are stored with their class name.
+ */
+public class EventTypeRegistry {
+
+    private final Map<String, Class<? extends Event>> typesById = new HashMap<>();
+    private final Map<Class<? extends Event>, String> idsByType = new HashMap<>();
+    private final Map<String, Class<?>> classesByName = new ConcurrentHashMap<>();
+
+    public EventTypeRegistry register(String id, Class<? extends Event> type) {
+        if (typesById.containsKey(id)) {
+            throw new IllegalArgumentException("Event type ID " + id + " is already used by " + typesById.get(id));
+        }
+        if (idsByType.containsKey(type)) {
+            throw new IllegalArgumentException("Event type " + type + " is already registered with ID " + idsByType.get(type));
+        }
+        typesById.put(id, type);
+        idsByType.put(type, id);
+        return this;
+    }
+
+    public boolean isRegistered(Class<? extends Event> type) {
+        return idsByType.containsKey(type);
+    }
+
+    public String getId(Class<? extends Event> type) {
+        var id = idsByType.get(type);
+        return id != null ? id : type.getName();
+    }
+
+    public Class<?> getType(String id) {
+        var type = typesById.get(id);
+        if (type != null) {
+            return type;
+        }
+        return classesByName.computeIfAbsent(id, EventTypeRegistry::loadClass);
+    }
+
+    private static Class<?> loadClass(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Unknown event type: " + className, e);
+        }
+    }
+}
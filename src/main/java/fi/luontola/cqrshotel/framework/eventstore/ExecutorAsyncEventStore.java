@@ -0,0 +1,67 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the calls to a blocking {@link EventStore} in a dedicated executor, so that
+ * the calling thread is free to do other work while waiting for the database.
+ * JDBC has no non-blocking API, so the executor should have about as many threads
+ * as the connection pool has connections; more threads would only wait for a connection.
+ */
+public class ExecutorAsyncEventStore implements AsyncEventStore {
+
+    private final EventStore eventStore;
+    private final Executor executor;
+
+    public ExecutorAsyncEventStore(EventStore eventStore, Executor executor) {
+        this.eventStore = eventStore;
+        this.executor = executor;
+    }
+
+    /**
+     * For tests. The futures are completed already before the methods return.
+     */
+    public static ExecutorAsyncEventStore inMemory() {
+        return new ExecutorAsyncEventStore(new InMemoryEventStore(), Runnable::run);
+    }
+
+    @Override
+    public CompletableFuture<Long> saveEvents(UUID streamId, List<Envelope<Event>> newEvents, int expectedVersion) {
+        return CompletableFuture.supplyAsync(() -> eventStore.saveEvents(streamId, newEvents, expectedVersion), executor);
+    }
+
+    @Override
+    public CompletableFuture<Long> saveEvents(List<StreamAppend> appends) {
+        return CompletableFuture.supplyAsync(() -> eventStore.saveEvents(appends), executor);
+    }
+
+    @Override
+    public CompletableFuture<List<PersistedEvent>> getEventsForStream(UUID streamId, int sinceVersion) {
+        return CompletableFuture.supplyAsync(() -> eventStore.getEventsForStream(streamId, sinceVersion), executor);
+    }
+
+    @Override
+    public CompletableFuture<List<PersistedEvent>> getAllEvents(long sincePosition) {
+        return CompletableFuture.supplyAsync(() -> eventStore.getAllEvents(sincePosition), executor);
+    }
+
+    @Override
+    public CompletableFuture<Integer> getCurrentVersion(UUID streamId) {
+        return CompletableFuture.supplyAsync(() -> eventStore.getCurrentVersion(streamId), executor);
+    }
+
+    @Override
+    public CompletableFuture<Long> getCurrentPosition() {
+        return CompletableFuture.supplyAsync(eventStore::getCurrentPosition, executor);
+    }
+}
@@ -0,0 +1,569 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Keeps the events in memory-mapped segment files in a local directory,
+ * for single-node deployments and tests which should survive a restart.
+ * <p>
+ * Every event is one record in the log. A record is written before its length,
+ * and it has a CRC32 of its contents, so a record which was being written when
+ * the process or machine crashed can be detected. The last record of every save is
+ * marked, and on startup the log is truncated after the last complete save.
+ * <p>
+ * The index from positions and stream versions to records is kept in memory and
+ * rebuilt on startup. Writers take turns, but readers never wait for them.
+ * The returned lists are views which decode the events straight from the mapped
+ * files when they are accessed.
+ */
+public class FileEventStore implements EventStore, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(FileEventStore.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 4 + 4; // length, CRC
+    private static final int FIXED_BODY_SIZE = 8 + 8 + 8 + 4 + 2 + 1 + 4; // position, stream ID, version, codec, flags, metadata length
+    private static final byte COMMIT_END = 1;
+    private static final byte HAS_TYPE = 2; // the type is before the metadata, prefixed with its length
+
+    private final Path directory;
+    private final EventCodec codec;
+    private final Map<Integer, EventCodec> codecsById = new HashMap<>();
+    private final EventTypeRegistry eventTypes;
+    private final int segmentSize;
+    private final boolean syncOnCommit;
+    private final FileChannel lockFile;
+    private final FileLock lock;
+
+    // a record is referenced by its segment number in the high bits and its offset in the low bits
+    private final AppendOnlyLog<Segment> segments = new AppendOnlyLog<>();
+    private final AppendOnlyLog<Long> allEvents = new AppendOnlyLog<>();
+    private final ConcurrentMap<UUID, AppendOnlyLog<Long>> streamsById = new ConcurrentHashMap<>();
+
+    private final Object writeLock = new Object();
+    private Segment writeSegment;
+    private int writeOffset;
+
+    public FileEventStore(Path directory, EventCodec codec, EventTypeRegistry eventTypes) {
+        this(directory, List.of(codec), eventTypes, DEFAULT_SEGMENT_SIZE, true);
+    }
+
+    /**
+     * @param codecs       the first codec is used for saving new events; the rest are
+     *                     needed for reading events which were saved with them earlier
+     * @param segmentSize  the size of the log files; a single event must fit in one
+     * @param syncOnCommit whether to wait for the events to reach the disk before returning
+     *                     from a save; without it a machine crash may lose the latest events
+     */
+    public FileEventStore(Path directory, List<EventCodec> codecs, EventTypeRegistry eventTypes,
+                          int segmentSize, boolean syncOnCommit) {
+        this.directory = directory;
+        this.codec = codecs.get(0);
+        for (var codec : codecs) {
+            this.codecsById.put(codec.getId(), codec);
+        }
+        this.eventTypes = eventTypes;
+        this.segmentSize = segmentSize;
+        this.syncOnCommit = syncOnCommit;
+        try {
+            Files.createDirectories(directory);
+            this.lockFile = FileChannel.open(directory.resolve("lock"), CREATE, WRITE);
+            this.lock = tryLock(lockFile);
+            if (lock == null) {
+                lockFile.close();
+                throw new IllegalStateException("Event store is already in use: " + directory);
+            }
+            recover();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open event store: " + directory, e);
+        }
+    }
+
+    private static FileLock tryLock(FileChannel file) throws IOException {
+        try {
+            return file.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null; // locked by this JVM
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            try {
+                for (var segment : segments.view(0)) {
+                    segment.channel.close();
+                }
+                lock.release();
+                lockFile.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+
+    // writing
+
+    @Override
+    public long saveEvents(UUID streamId, List<Envelope<Event>> newEvents, int expectedVersion) {
+        return saveEvents(List.of(new StreamAppend(streamId, newEvents, expectedVersion)));
+    }
+
+    @Override
+    public long saveEvents(List<StreamAppend> appends) {
+        StreamAppend.checkDistinctStreams(appends);
+        // serialize before writing anything, so that a failure can't leave a partial save in the log
+        var records = new ArrayList<Record>();
+        for (var append : appends) {
+            var version = append.expectedVersion;
+            for (var newEvent : append.newEvents) {
+                var metadata = getMetadata(newEvent);
+                records.add(new Record(append.streamId, ++version, metadata.type.getBytes(UTF_8),
+                        codec.serialize(newEvent.payload), codec.serialize(metadata)));
+            }
+        }
+        for (var record : records) {
+            if (HEADER_SIZE + record.bodySize() > segmentSize) {
+                throw new IllegalArgumentException("Event is larger than the segment size " + segmentSize + ": stream " +
+                        record.streamId + " version " + record.version);
+            }
+        }
+
+        synchronized (writeLock) {
+            for (var append : appends) {
+                var actualVersion = getCurrentVersion(append.streamId);
+                if (append.expectedVersion != actualVersion) {
+                    throw new OptimisticLockingException("expected version " + append.expectedVersion + " but was " + actualVersion + " for stream " + append.streamId);
+                }
+            }
+            if (records.isEmpty()) {
+                return allEvents.size();
+            }
+
+            var position = (long) allEvents.size();
+            var streamIds = records.stream().map(record -> record.streamId).collect(Collectors.toSet());
+            var startSegment = writeSegment;
+            var startOffset = writeOffset;
+            // the end of the bytes which may have been written to each segment
+            var touchedSegments = new LinkedHashMap<Segment, Integer>();
+            try {
+                for (var i = 0; i < records.size(); i++) {
+                    var record = records.get(i);
+                    var recordSize = HEADER_SIZE + record.bodySize();
+                    if (writeOffset + recordSize > writeSegment.capacity()) {
+                        writeSegment = createSegment(writeSegment.number + 1);
+                        writeOffset = 0;
+                    }
+                    touchedSegments.put(writeSegment, writeOffset + recordSize);
+                    var isLast = i == records.size() - 1;
+                    writeRecord(writeSegment.buffer, writeOffset, record, ++position, (byte) (HAS_TYPE | (isLast ? COMMIT_END : 0)));
+                    index(record.streamId, ref(writeSegment.number, writeOffset));
+                    writeOffset += recordSize;
+                }
+                if (syncOnCommit) {
+                    for (var segment : touchedSegments.keySet()) {
+                        segment.buffer.force();
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                rollback(streamIds, startSegment, startOffset, touchedSegments);
+                throw e;
+            }
+            publish(streamIds);
+
+            if (log.isTraceEnabled()) {
+                for (var append : appends) {
+                    for (var i = 0; i < append.newEvents.size(); i++) {
+                        log.trace("Saved stream {} version {}: {}", append.streamId, append.expectedVersion + 1 + i, append.newEvents.get(i));
+                    }
+                }
+            }
+            return position;
+        }
+    }
+
+    private static void writeRecord(MappedByteBuffer buffer, int offset, Record record, long position, byte flags) {
+        var body = offset + HEADER_SIZE;
+        buffer.putLong(body, position);
+        buffer.putLong(body + 8, record.streamId.getMostSignificantBits());
+        buffer.putLong(body + 16, record.streamId.getLeastSignificantBits());
+        buffer.putInt(body + 24, record.version);
+        buffer.putShort(body + 28, (short) record.codec);
+        buffer.put(body + 30, flags);
+        buffer.putInt(body + 31, record.metadata.length);
+        var b = buffer.duplicate();
+        b.position(body + FIXED_BODY_SIZE);
+        b.putShort((short) record.type.length);
+        b.put(record.type);
+        b.put(record.metadata);
+        b.put(record.data);
+
+        var bodySize = record.bodySize();
+        buffer.putInt(offset + 4, crc(buffer, body, bodySize));
+        // the length is written last, because a zero length marks the end of the log
+        buffer.putInt(offset, bodySize);
+    }
+
+    private void index(UUID streamId, long ref) {
+        streamsById.computeIfAbsent(streamId, uuid -> new AppendOnlyLog<>()).append(ref);
+        allEvents.append(ref);
+    }
+
+    private void publish(Iterable<UUID> streamIds) {
+        // the global log first, so that no stream is ahead of the global log
+        allEvents.publish();
+        for (var streamId : streamIds) {
+            streamsById.get(streamId).publish();
+        }
+    }
+
+    /**
+     * Undoes a save which failed before it was published, so that the next save
+     * will be written and indexed at the same positions.
+     */
+    private void rollback(Iterable<UUID> streamIds, Segment startSegment, int startOffset, Map<Segment, Integer> touchedSegments) {
+        allEvents.discardUnpublished();
+        for (var streamId : streamIds) {
+            var stream = streamsById.get(streamId);
+            if (stream != null) {
+                stream.discardUnpublished();
+            }
+        }
+        for (var touched : touchedSegments.entrySet()) {
+            var segment = touched.getKey();
+            var start = segment == startSegment ? startOffset : 0;
+            var end = Math.min(touched.getValue(), segment.capacity());
+            for (var i = start; i < end; i++) {
+                segment.buffer.put(i, (byte) 0);
+            }
+        }
+        writeSegment = startSegment;
+        writeOffset = startOffset;
+    }
+
+    private EventMetadata getMetadata(Envelope<Event> event) {
+        var meta = new EventMetadata();
+        meta.messageId = event.messageId;
+        meta.correlationId = event.correlationId;
+        meta.causationId = event.causationId;
+        meta.type = eventTypes.getId(event.payload.getClass());
+        meta.version = 1; // TODO: versioning support
+        return meta;
+    }
+
+    private class Record {
+        final UUID streamId;
+        final int version;
+        final int codec;
+        final byte[] type;
+        final byte[] data;
+        final byte[] metadata;
+
+        Record(UUID streamId, int version, byte[] type, byte[] data, byte[] metadata) {
+            this.streamId = streamId;
+            this.version = version;
+            this.codec = FileEventStore.this.codec.getId();
+            this.type = type;
+            this.data = data;
+            this.metadata = metadata;
+        }
+
+        int bodySize() {
+            return FIXED_BODY_SIZE + 2 + type.length + metadata.length + data.length;
+        }
+    }
+
+
+    // reading
+
+    @Override
+    public List<PersistedEvent> getEventsForStream(UUID streamId, int sinceVersion) {
+        var stream = streamsById.get(streamId);
+        if (stream == null) {
+            return Collections.emptyList();
+        }
+        return new EventsView(stream.view(sinceVersion));
+    }
+
+    @Override
+    public List<PersistedEvent> getAllEvents(long sincePosition) {
+        return new EventsView(allEvents.view((int) sincePosition));
+    }
+
+    @Override
+    public Stream<PersistedEvent> streamAllEvents(long sincePosition) {
+        // the log is append-only, so the events up to the current position will never change
+        return getAllEvents(sincePosition).stream();
+    }
+
+    @Override
+    public int getCurrentVersion(UUID streamId) {
+        var stream = streamsById.get(streamId);
+        if (stream == null) {
+            return BEGINNING;
+        }
+        return stream.size();
+    }
+
+    @Override
+    public long getCurrentPosition() {
+        return allEvents.size();
+    }
+
+    private PersistedEvent readRecord(long ref) {
+        var segment = segments.get(segmentNumber(ref));
+        // a duplicate has its own position, so that concurrent readers don't disturb each other
+        var b = segment.buffer.duplicate();
+        var body = offset(ref) + HEADER_SIZE;
+        var bodySize = b.getInt(offset(ref));
+        var position = b.getLong(body);
+        var streamId = new UUID(b.getLong(body + 8), b.getLong(body + 16));
+        var version = b.getInt(body + 24);
+        var codecId = b.getShort(body + 28);
+        var flags = b.get(body + 30);
+        b.position(body + FIXED_BODY_SIZE);
+        String type = null;
+        if ((flags & HAS_TYPE) != 0) {
+            var typeBytes = new byte[b.getShort()];
+            b.get(typeBytes);
+            type = new String(typeBytes, UTF_8);
+        }
+        var metadata = new byte[b.getInt(body + 31)];
+        var data = new byte[body + bodySize - b.position() - metadata.length];
+        b.get(metadata);
+        b.get(data);
+
+        var codec = codecsById.get((int) codecId);
+        if (codec == null) {
+            throw new IllegalStateException("Unknown event codec: " + codecId);
+        }
+        if (type == null) {
+            // saved before the type was stored next to the metadata
+            type = codec.readEventType(metadata);
+        }
+        var eventType = eventTypes.getType(type).asSubclass(Event.class);
+        return new PersistedEvent(eventType, () -> codec.deserializeEvent(data, metadata, eventTypes), streamId, version, position);
+    }
+
+    private class EventsView extends AbstractList<PersistedEvent> implements RandomAccess {
+
+        private final List<Long> refs;
+
+        EventsView(List<Long> refs) {
+            this.refs = refs;
+        }
+
+        @Override
+        public PersistedEvent get(int index) {
+            return readRecord(refs.get(index));
+        }
+
+        @Override
+        public int size() {
+            return refs.size();
+        }
+    }
+
+
+    // recovery
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (var list = Files.list(directory)) {
+            files = list.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (var i = 0; i < files.size(); i++) {
+            if (!files.get(i).equals(segmentFile(i))) {
+                throw new IllegalStateException("Missing segment " + segmentFile(i) + ", found " + files.get(i));
+            }
+        }
+        var opened = new ArrayList<Segment>();
+        for (var i = 0; i < files.size(); i++) {
+            opened.add(openSegment(i));
+        }
+        if (opened.isEmpty()) {
+            opened.add(openSegment(0));
+        }
+
+        // find the end of the last complete save
+        var endSegment = opened.get(0);
+        var endOffset = 0;
+        var pendingStreams = new LinkedHashSet<UUID>();
+        var position = (long) BEGINNING;
+        scan:
+        for (var segment : opened) {
+            var b = segment.buffer;
+            var offset = 0;
+            while (offset + HEADER_SIZE <= segment.capacity()) {
+                var bodySize = b.getInt(offset);
+                if (bodySize == 0) {
+                    continue scan; // the rest of the segment is unused
+                }
+                var body = offset + HEADER_SIZE;
+                if (bodySize < FIXED_BODY_SIZE || bodySize > segment.capacity() - body
+                        || b.getInt(offset + 4) != crc(b, body, bodySize)
+                        || b.getLong(body) != position + 1) {
+                    log.warn("Corrupted record in {} at offset {}", segment.file, offset);
+                    break scan;
+                }
+                position++;
+                var streamId = new UUID(b.getLong(body + 8), b.getLong(body + 16));
+                index(streamId, ref(segment.number, offset));
+                pendingStreams.add(streamId);
+                offset = body + bodySize;
+                if ((b.get(body + 30) & COMMIT_END) != 0) {
+                    publish(pendingStreams);
+                    pendingStreams.clear();
+                    endSegment = segment;
+                    endOffset = offset;
+                }
+            }
+        }
+
+        // discard everything after it
+        allEvents.discardUnpublished();
+        for (var stream : streamsById.values()) {
+            stream.discardUnpublished();
+        }
+        truncate(endSegment, endOffset);
+        for (var segment : opened) {
+            if (segment.number <= endSegment.number) {
+                segments.append(segment);
+            } else {
+                log.warn("Discarded an incomplete save in {}", segment.file);
+                segment.channel.close();
+                Files.delete(segment.file);
+            }
+        }
+        segments.publish();
+        writeSegment = endSegment;
+        writeOffset = endOffset;
+        log.info("Opened event store {} with {} events in {} segments", directory, allEvents.size(), segments.size());
+    }
+
+    private static void truncate(Segment segment, int offset) {
+        var b = segment.buffer;
+        var dirty = false;
+        for (var i = offset; i < b.capacity(); i++) {
+            if (b.get(i) != 0) {
+                b.put(i, (byte) 0);
+                dirty = true;
+            }
+        }
+        if (dirty) {
+            log.warn("Discarded an incomplete save from the end of {}", segment.file);
+            b.force();
+        }
+    }
+
+
+    // segments
+
+    private Segment createSegment(int number) {
+        if (number < segments.size()) {
+            // left empty by a save which failed after creating it
+            return segments.get(number);
+        }
+        try {
+            var segment = openSegment(number);
+            segments.append(segment);
+            segments.publish();
+            log.debug("Created segment {}", segment.file);
+            return segment;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create segment " + segmentFile(number), e);
+        }
+    }
+
+    private Segment openSegment(int number) throws IOException {
+        var file = segmentFile(number);
+        var channel = FileChannel.open(file, CREATE, READ, WRITE);
+        // a new file is filled with zeros, which marks the end of the log
+        var size = Math.max(channel.size(), segmentSize);
+        return new Segment(number, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    private Path segmentFile(int number) {
+        return directory.resolve(String.format("%020d", number) + SEGMENT_SUFFIX);
+    }
+
+    private static long ref(int segmentNumber, int offset) {
+        return ((long) segmentNumber << 32) | offset;
+    }
+
+    private static int segmentNumber(long ref) {
+        return (int) (ref >>> 32);
+    }
+
+    private static int offset(long ref) {
+        return (int) ref;
+    }
+
+    private static int crc(MappedByteBuffer buffer, int offset, int length) {
+        var b = buffer.duplicate();
+        b.position(offset);
+        b.limit(offset + length);
+        var crc = new CRC32();
+        crc.update(b);
+        return (int) crc.getValue();
+    }
+
+    private static class Segment {
+        final int number;
+        final Path file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        Segment(int number, Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+    }
+}
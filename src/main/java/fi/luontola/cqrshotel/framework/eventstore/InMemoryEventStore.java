@@ -9,62 +9,111 @@ import fi.luontola.cqrshotel.framework.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Writers take turns, but readers never wait for them. The returned lists are
+ * immutable views of the events which were saved before the read, not copies.
+ */
 public class InMemoryEventStore implements EventStore {
 
     private static final Logger log = LoggerFactory.getLogger(InMemoryEventStore.class);
 
-    private final Map<UUID, List<PersistedEvent>> streamsById = new HashMap<>();
-    private final List<PersistedEvent> allEvents = new ArrayList<>();
+    private final ConcurrentMap<UUID, AppendOnlyLog<PersistedEvent>> streamsById = new ConcurrentHashMap<>();
+    private final AppendOnlyLog<PersistedEvent> allEvents = new AppendOnlyLog<>();
+    private final Object writeLock = new Object();
 
     @Override
-    public synchronized long saveEvents(UUID streamId, List<Envelope<Event>> newEvents, int expectedVersion) {
-        var stream = streamsById.computeIfAbsent(streamId, uuid -> new ArrayList<>());
-        var actualVersion = stream.size();
+    public long saveEvents(UUID streamId, List<Envelope<Event>> newEvents, int expectedVersion) {
+        synchronized (writeLock) {
+            checkVersion(streamId, expectedVersion);
+            var position = append(streamId, newEvents, allEvents.size());
+            publish(List.of(streamId));
+            return position;
+        }
+    }
+
+    @Override
+    public long saveEvents(List<StreamAppend> appends) {
+        StreamAppend.checkDistinctStreams(appends);
+        synchronized (writeLock) {
+            for (var append : appends) {
+                checkVersion(append.streamId, append.expectedVersion);
+            }
+            long position = allEvents.size();
+            for (var append : appends) {
+                position = append(append.streamId, append.newEvents, position);
+            }
+            publish(appends.stream().map(append -> append.streamId).collect(Collectors.toList()));
+            return position;
+        }
+    }
+
+    private void checkVersion(UUID streamId, int expectedVersion) {
+        var actualVersion = getCurrentVersion(streamId);
         if (expectedVersion != actualVersion) {
             throw new OptimisticLockingException("expected version " + expectedVersion + " but was " + actualVersion + " for stream " + streamId);
         }
+    }
+
+    private long append(UUID streamId, List<Envelope<Event>> newEvents, long position) {
+        var stream = streamsById.computeIfAbsent(streamId, uuid -> new AppendOnlyLog<>());
+        var version = stream.size();
         for (var newEvent : newEvents) {
-            var persisted = new PersistedEvent(newEvent, streamId, stream.size() + 1, allEvents.size() + 1);
-            stream.add(persisted);
-            allEvents.add(persisted);
-            log.trace("Saved stream {} version {}: {}", persisted.streamId, persisted.version, persisted.event);
+            var persisted = new PersistedEvent(newEvent, streamId, ++version, ++position);
+            stream.append(persisted);
+            allEvents.append(persisted);
+            log.trace("Saved stream {} version {}: {}", persisted.streamId, persisted.version, persisted.getEvent());
+        }
+        return position;
+    }
+
+    private void publish(List<UUID> streamIds) {
+        // the global log shows the events of all the streams at once,
+        // and before the streams, so that no stream is ahead of the global log
+        allEvents.publish();
+        for (var streamId : streamIds) {
+            streamsById.get(streamId).publish();
         }
-        return allEvents.size();
     }
 
     @Override
-    public synchronized List<PersistedEvent> getEventsForStream(UUID streamId, int sinceVersion) {
-        var stream = streamsById.getOrDefault(streamId, Collections.emptyList());
-        return readSince(sinceVersion, stream);
+    public List<PersistedEvent> getEventsForStream(UUID streamId, int sinceVersion) {
+        var stream = streamsById.get(streamId);
+        if (stream == null) {
+            return Collections.emptyList();
+        }
+        return stream.view(sinceVersion);
     }
 
     @Override
-    public synchronized List<PersistedEvent> getAllEvents(long sincePosition) {
-        return readSince(sincePosition, allEvents);
+    public List<PersistedEvent> getAllEvents(long sincePosition) {
+        return allEvents.view((int) sincePosition);
     }
 
-    private static ArrayList<PersistedEvent> readSince(long sincePosition, List<PersistedEvent> events) {
-        return new ArrayList<>(events.subList((int) sincePosition, events.size()));
+    @Override
+    public Stream<PersistedEvent> streamAllEvents(long sincePosition) {
+        // the log is append-only, so the events up to the current position will never change
+        return getAllEvents(sincePosition).stream();
     }
 
     @Override
-    public synchronized int getCurrentVersion(UUID streamId) {
-        var events = streamsById.get(streamId);
-        if (events == null) {
+    public int getCurrentVersion(UUID streamId) {
+        var stream = streamsById.get(streamId);
+        if (stream == null) {
             return BEGINNING;
         }
-        return events.size();
+        return stream.size();
     }
 
     @Override
-    public synchronized long getCurrentPosition() {
+    public long getCurrentPosition() {
         return allEvents.size();
     }
 }
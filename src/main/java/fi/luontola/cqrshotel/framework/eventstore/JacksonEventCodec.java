@@ -0,0 +1,139 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+abstract class JacksonEventCodec implements EventCodec {
+
+    private final int id;
+    private final JsonFactory factory;
+    private final ObjectWriter writer;
+    private final ClassValue<ObjectReader> readers;
+
+    JacksonEventCodec(int id, ObjectMapper objectMapper) {
+        this.id = id;
+        this.factory = objectMapper.getFactory();
+        this.writer = objectMapper.writer();
+        var reader = objectMapper.reader();
+        this.readers = new ClassValue<>() {
+            @Override
+            protected ObjectReader computeValue(Class<?> type) {
+                return reader.forType(type);
+            }
+        };
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public byte[] serialize(Object value) {
+        try {
+            return writer.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to serialize: " + value, e);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> type) {
+        try {
+            return readers.get(type).readValue(bytes);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize " + type.getName(), e);
+        }
+    }
+
+    @Override
+    public Envelope<Event> deserializeEvent(byte[] data, byte[] metadata, EventTypeRegistry eventTypes) {
+        // the metadata is read field by field, because that is much cheaper than data binding
+        UUID messageId = null;
+        UUID correlationId = null;
+        UUID causationId = null;
+        String type = null;
+        try (var parser = factory.createParser(metadata)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected metadata to be an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "messageId":
+                        messageId = readUUID(parser);
+                        break;
+                    case "correlationId":
+                        correlationId = readUUID(parser);
+                        break;
+                    case "causationId":
+                        causationId = readUUID(parser);
+                        break;
+                    case "type":
+                        type = parser.getValueAsString();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize event metadata", e);
+        }
+        if (type == null) {
+            throw new IllegalArgumentException("Event metadata has no type");
+        }
+        var event = (Event) deserialize(data, eventTypes.getType(type));
+        return new Envelope<>(event, messageId, correlationId, causationId);
+    }
+
+    @Override
+    public String readEventType(byte[] metadata) {
+        try (var parser = factory.createParser(metadata)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected metadata to be an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("type")) {
+                    return parser.getValueAsString();
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize event metadata", e);
+        }
+        throw new IllegalArgumentException("Event metadata has no type");
+    }
+
+    private static UUID readUUID(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                return UUID.fromString(parser.getText());
+            case VALUE_EMBEDDED_OBJECT:
+                // binary formats store UUIDs as 16 bytes
+                var bytes = ByteBuffer.wrap(parser.getBinaryValue());
+                return new UUID(bytes.getLong(), bytes.getLong());
+            default:
+                throw new JsonParseException(parser, "Expected a UUID but was " + parser.currentToken());
+        }
+    }
+}
@@ -0,0 +1,21 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * UTF-8 encoded JSON. All events stored before the codecs were introduced are in this format.
+ */
+public class JsonEventCodec extends JacksonEventCodec {
+
+    public static final int ID = 1;
+
+    public JsonEventCodec(ObjectMapper objectMapper) {
+        // pretty-printing would only waste space
+        super(ID, objectMapper.copy().disable(SerializationFeature.INDENT_OUTPUT));
+    }
+}
@@ -1,4 +1,4 @@
-// Copyright © 2016-2018 Esko Luontola
+// Copyright © 2016-2019 Esko Luontola
 // This software is released under the Apache License 2.0.
 // The license text is at http://www.apache.org/licenses/LICENSE-2.0
 
@@ -6,21 +6,76 @@ package fi.luontola.cqrshotel.framework.eventstore;
 
 import fi.luontola.cqrshotel.framework.Envelope;
 import fi.luontola.cqrshotel.framework.Event;
-import fi.luontola.cqrshotel.framework.util.Struct;
 
+import java.util.Objects;
 import java.util.UUID;
+import java.util.function.Supplier;
 
-public class PersistedEvent extends Struct {
+/**
+ * An event as it was saved to a stream. An event read from storage may be deserialized
+ * only on the first call to {@link #getEvent()}, so that consumers which route the events
+ * by their {@link #eventType} don't pay for deserializing the events they ignore.
+ */
+public class PersistedEvent {
 
-    public final Envelope<Event> event;
+    public final Class<? extends Event> eventType;
     public final UUID streamId;
     public final int version;
     public final long position;
+    private volatile Envelope<Event> event;
+    private Supplier<Envelope<Event>> deserializer;
 
     public PersistedEvent(Envelope<Event> event, UUID streamId, int version, long position) {
+        this.eventType = event.payload.getClass();
         this.event = event;
         this.streamId = streamId;
         this.version = version;
         this.position = position;
     }
+
+    public PersistedEvent(Class<? extends Event> eventType, Supplier<Envelope<Event>> deserializer, UUID streamId, int version, long position) {
+        this.eventType = eventType;
+        this.deserializer = deserializer;
+        this.streamId = streamId;
+        this.version = version;
+        this.position = position;
+    }
+
+    public Envelope<Event> getEvent() {
+        var event = this.event;
+        if (event == null) {
+            synchronized (this) {
+                event = this.event;
+                if (event == null) {
+                    event = deserializer.get();
+                    this.event = event;
+                    deserializer = null; // let the serialized bytes be garbage collected
+                }
+            }
+        }
+        return event;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof PersistedEvent)) {
+            return false;
+        }
+        var that = (PersistedEvent) obj;
+        return this.streamId.equals(that.streamId) &&
+                this.version == that.version &&
+                this.position == that.position &&
+                this.eventType.equals(that.eventType) &&
+                this.getEvent().equals(that.getEvent());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(streamId, version, position);
+    }
+
+    @Override
+    public String toString() {
+        return "PersistedEvent[event=" + getEvent() + ",position=" + position + ",streamId=" + streamId + ",version=" + version + "]";
+    }
 }
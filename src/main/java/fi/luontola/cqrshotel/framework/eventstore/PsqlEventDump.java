@@ -0,0 +1,143 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Copies the events of a {@link PsqlEventStore} to a file and back, for example to move
+ * them to another environment or to seed a database for load testing. The events keep
+ * their streams, versions and global positions.
+ * <p>
+ * The file is the output of PostgreSQL's binary {@code COPY} compressed with gzip.
+ * Both directions stream the events, so they run in constant memory regardless of
+ * the number of events.
+ */
+public class PsqlEventDump {
+
+    private static final Logger log = LoggerFactory.getLogger(PsqlEventDump.class);
+
+    private static final String COLUMNS = "stream_id, version, position, codec, type, data, metadata, expires";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataSource dataSource;
+
+    public PsqlEventDump(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Writes all events in the order of their global position. Events which have not yet
+     * been assigned a position are left out. The output stream is not closed.
+     *
+     * @return the number of events written
+     */
+    public long exportEvents(OutputStream out) {
+        var connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            var gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+            // a single statement sees a consistent snapshot of the event store
+            var count = copyManager(connection).copyOut("COPY (" +
+                    "SELECT " + COLUMNS + " " +
+                    "FROM all_event " +
+                    "WHERE position IS NOT NULL " +
+                    "ORDER BY position" +
+                    ") TO STDOUT (FORMAT binary)", gzip);
+            gzip.finish();
+            return count;
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException("Failed to export events", e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    /**
+     * Reads events which were written by {@link #exportEvents} into an empty event store,
+     * in a single transaction. The input stream is not closed.
+     *
+     * @return the number of events read
+     * @throws IllegalStateException if the event store already contains events
+     */
+    public long importEvents(InputStream in) {
+        var connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            connection.setAutoCommit(false);
+            try (var statement = connection.createStatement()) {
+                // lock the head, so that no events can be saved during the import
+                var rs = statement.executeQuery("SELECT position, EXISTS(SELECT 1 FROM stream) FROM event_head FOR UPDATE");
+                rs.next();
+                if (rs.getLong(1) != 0 || rs.getBoolean(2)) {
+                    throw new IllegalStateException("Events can be imported only to an empty event store, " +
+                            "but its current position is " + rs.getLong(1));
+                }
+                // A stream must exist before its events, but the streams are known only after reading
+                // all events, so the events are first copied to a temporary table, which is not WAL-logged.
+                statement.execute("CREATE TEMPORARY TABLE event_import (" +
+                        "  stream_id UUID  NOT NULL," +
+                        "  version   INT4  NOT NULL," +
+                        "  position  INT8  NOT NULL," +
+                        "  codec     INT2  NOT NULL," +
+                        "  type      TEXT," +
+                        "  data      BYTEA NOT NULL," +
+                        "  metadata  BYTEA NOT NULL," +
+                        "  expires   TIMESTAMPTZ" +
+                        ") ON COMMIT DROP");
+                var count = copyManager(connection).copyIn(
+                        "COPY event_import (" + COLUMNS + ") FROM STDIN (FORMAT binary)",
+                        new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+                statement.execute("INSERT INTO stream (stream_id, version) " +
+                        "SELECT stream_id, max(version) " +
+                        "FROM event_import " +
+                        "GROUP BY stream_id");
+                statement.execute("INSERT INTO event (" + COLUMNS + ") " +
+                        "SELECT " + COLUMNS + " " +
+                        "FROM event_import");
+                statement.execute("UPDATE event_head " +
+                        "SET position = (SELECT coalesce(max(position), 0) FROM event)");
+                connection.commit();
+                return count;
+            }
+        } catch (SQLException | IOException e) {
+            rollback(connection);
+            throw new RuntimeException("Failed to import events", e);
+        } catch (RuntimeException e) {
+            rollback(connection);
+            throw e;
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                log.warn("Failed to reset connection after importing events", e);
+            }
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    private static CopyManager copyManager(Connection connection) throws SQLException {
+        return connection.unwrap(PGConnection.class).getCopyAPI();
+    }
+
+    private static void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            log.warn("Failed to roll back the import", e);
+        }
+    }
+}
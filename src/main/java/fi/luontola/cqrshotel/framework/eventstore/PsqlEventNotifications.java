@@ -0,0 +1,115 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.function.LongConsumer;
+
+/**
+ * Listens to the notifications which {@link PsqlEventStore} sends when new events
+ * become visible in the global log, including events saved by other processes.
+ * Holds one database connection for as long as it's running.
+ */
+public class PsqlEventNotifications {
+
+    private static final Logger log = LoggerFactory.getLogger(PsqlEventNotifications.class);
+
+    public static final String CHANNEL = "event_store";
+
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(5);
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(10);
+
+    private final DataSource dataSource;
+    private final LongConsumer listener;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * @param listener is called with the latest global position. It's also called with
+     *                 the current position after (re)connecting, because notifications
+     *                 may have been missed while disconnected.
+     */
+    public PsqlEventNotifications(DataSource dataSource, LongConsumer listener) {
+        this.dataSource = dataSource;
+        this.listener = listener;
+        this.thread = new Thread(this::run, "PsqlEventNotifications");
+        this.thread.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        thread.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        thread.interrupt();
+        thread.join(SHUTDOWN_TIMEOUT.toMillis());
+    }
+
+    private void run() {
+        while (running) {
+            try (var connection = dataSource.getConnection()) {
+                listen(connection);
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                log.warn("Failed to listen to event notifications, reconnecting in {}", RECONNECT_DELAY, e);
+                try {
+                    Thread.sleep(RECONNECT_DELAY.toMillis());
+                } catch (InterruptedException e2) {
+                    break;
+                }
+            }
+        }
+        log.debug("Stopped listening to event notifications");
+    }
+
+    private void listen(Connection connection) throws SQLException {
+        var pg = connection.unwrap(PGConnection.class);
+        try (var statement = connection.createStatement()) {
+            statement.execute("LISTEN " + CHANNEL);
+        }
+        try {
+            log.debug("Listening to event notifications");
+            try (var statement = connection.createStatement();
+                 var rs = statement.executeQuery("SELECT position FROM event_head")) {
+                listener.accept(rs.next() ? rs.getLong(1) : EventStore.BEGINNING);
+            }
+
+            while (running) {
+                var notifications = pg.getNotifications((int) POLL_TIMEOUT.toMillis());
+                if (notifications == null || notifications.length == 0) {
+                    continue;
+                }
+                // many commits may be reported at once; only the latest position matters
+                long position = EventStore.BEGINNING;
+                for (var notification : notifications) {
+                    position = Math.max(position, Long.parseLong(notification.getParameter()));
+                }
+                listener.accept(position);
+            }
+        } finally {
+            // the connection goes back to the pool
+            try (var statement = connection.createStatement()) {
+                statement.execute("UNLISTEN " + CHANNEL);
+            } catch (SQLException e) {
+                log.debug("Failed to stop listening to event notifications", e);
+            }
+        }
+    }
+}
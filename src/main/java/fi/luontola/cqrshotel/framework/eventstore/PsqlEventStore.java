@@ -4,26 +4,50 @@
 
 package fi.luontola.cqrshotel.framework.eventstore;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.BaseEncoding;
 import fi.luontola.cqrshotel.framework.Envelope;
 import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.ShortLivedEvent;
 import org.postgresql.util.PSQLException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.core.SqlTypeValue;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 
 import javax.sql.DataSource;
-import java.io.IOException;
-import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class PsqlEventStore implements EventStore {
 
@@ -31,89 +55,606 @@ public class PsqlEventStore implements EventStore {
 
     private static final Pattern OPTIMISTIC_LOCKING_FAILURE_MESSAGE =
             Pattern.compile("^optimistic locking failure, current version is (\\d+)$");
+    private static final Pattern MULTI_STREAM_OPTIMISTIC_LOCKING_FAILURE_MESSAGE =
+            Pattern.compile("^optimistic locking failure in stream ([0-9a-f-]+), current version is (\\d+)$");
+
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private static final Duration GROUP_COMMIT_WINDOW = Duration.ofMillis(1);
+    private static final Duration SEQUENCER_RETRY_INTERVAL = Duration.ofMillis(100);
+    private static final int MAX_GROUP_SIZE = 100;
+    private static final int ARCHIVE_BATCH_SIZE = 10000;
+
+    /**
+     * Strategies for assigning the global position of events.
+     */
+    public enum Sequencing {
+
+        /**
+         * The global position is assigned in the same transaction which saves the events.
+         * A table lock is held until the commit, so only one transaction at a time can save events.
+         */
+        TABLE_LOCK,
+
+        /**
+         * The events are first committed to their stream without a global position,
+         * after which a short sequencer transaction assigns positions to all committed events
+         * which are pending for it. Writers to different streams don't block each other
+         * and a single sequencer run handles the events of many concurrent writers.
+         * <p>
+         * Events which were left pending, because their writer crashed before they were
+         * sequenced, are sequenced when their stream is read and by
+         * {@link #sequencePendingEvents()}, which should be called periodically.
+         */
+        SEQUENCER,
+
+        /**
+         * Concurrent saves to different streams are collected for a short while and
+         * written in one transaction, which also assigns their global positions.
+         * Each save still fails or succeeds on its own.
+         */
+        GROUP_COMMIT
+    }
 
     private final DataSource dataSource;
     private final NamedParameterJdbcTemplate jdbcTemplate;
-    private final ObjectMapper objectMapper;
+    private final EventCodec codec;
+    private final Map<Integer, EventCodec> codecsById = new HashMap<>();
+    private final EventTypeRegistry eventTypes;
+    private final int fetchSize;
+    private final Sequencing sequencing;
+    private final List<PendingSave> pendingSaves = new ArrayList<>();
+    private final Lock groupCommitLeader = new ReentrantLock();
+    private final List<PendingSave> unsequencedSaves = new ArrayList<>();
+    private final Lock sequencerLeader = new ReentrantLock();
+    private DataSource replicaDataSource;
+    private NamedParameterJdbcTemplate replicaJdbcTemplate;
+    private final AtomicLong observedPosition = new AtomicLong(BEGINNING);
+    private volatile long replicaPosition = BEGINNING;
 
     public PsqlEventStore(DataSource dataSource, ObjectMapper objectMapper) {
+        this(dataSource, objectMapper, DEFAULT_FETCH_SIZE, Sequencing.TABLE_LOCK);
+    }
+
+    public PsqlEventStore(DataSource dataSource, ObjectMapper objectMapper, int fetchSize, Sequencing sequencing) {
+        this(dataSource, List.of(new JsonEventCodec(objectMapper)), new EventTypeRegistry(), fetchSize, sequencing);
+    }
+
+    /**
+     * @param codecs the first codec is used for saving new events; the rest are
+     *               needed for reading events which were saved with them earlier
+     */
+    public PsqlEventStore(DataSource dataSource, List<EventCodec> codecs, EventTypeRegistry eventTypes,
+                          int fetchSize, Sequencing sequencing) {
         this.dataSource = dataSource;
         this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
-        this.objectMapper = objectMapper;
+        this.codec = codecs.get(0);
+        for (var codec : codecs) {
+            this.codecsById.put(codec.getId(), codec);
+        }
+        this.eventTypes = eventTypes;
+        this.fetchSize = fetchSize;
+        this.sequencing = sequencing;
+    }
+
+    /**
+     * Makes the events be read from a read-only replica of the database, whenever the replica
+     * has caught up with the position which the reader needs: the position it reads from and
+     * the latest position which this event store has saved or read from the primary. Otherwise
+     * the events are read from the primary, so that the reader never misses events which it
+     * already knows about. Events saved by other processes may be seen later, as if they had
+     * been saved a moment later.
+     * Saving events, reading the events of a stream and reading the current version and position
+     * always use the primary, because the aggregates are loaded from the stream before saving.
+     */
+    public void enableReadReplica(DataSource replicaDataSource) {
+        this.replicaDataSource = replicaDataSource;
+        this.replicaJdbcTemplate = new NamedParameterJdbcTemplate(replicaDataSource);
     }
 
     @Override
     public long saveEvents(UUID streamId, List<Envelope<Event>> newEvents, int expectedVersion) {
-        try {
-            Array data;
-            Array metadata;
-            try (var connection = DataSourceUtils.getConnection(dataSource)) {
-                // The connection must be closed before using JdbcTemplate, because otherwise
-                // the JdbcTemplate tries to get another connection and the pool may run out
-                // of available connections.
-                data = connection.createArrayOf("jsonb", serializeData(newEvents));
-                metadata = connection.createArrayOf("jsonb", serializeMetadata(newEvents));
-            }
-
-            var endPosition = jdbcTemplate.queryForObject(
-                    "SELECT save_events(:stream_id, :expected_version, :data, :metadata)",
-                    new MapSqlParameterSource()
-                            .addValue("stream_id", streamId)
-                            .addValue("expected_version", expectedVersion)
-                            .addValue("data", data)
-                            .addValue("metadata", metadata),
-                    Long.class);
+        long endPosition;
+        if (sequencing == Sequencing.GROUP_COMMIT) {
+            endPosition = saveEventsInGroup(new PendingSave(streamId, newEvents, expectedVersion));
+        } else {
+            endPosition = saveEventsAlone(streamId, newEvents, expectedVersion);
+        }
 
-            if (log.isTraceEnabled()) {
-                for (var i = 0; i < newEvents.size(); i++) {
-                    var newVersion = expectedVersion + 1 + i;
-                    var newEvent = newEvents.get(i);
-                    log.trace("Saved stream {} version {}: {}", streamId, newVersion, newEvent);
+        if (log.isTraceEnabled()) {
+            for (var i = 0; i < newEvents.size(); i++) {
+                var newVersion = expectedVersion + 1 + i;
+                var newEvent = newEvents.get(i);
+                log.trace("Saved stream {} version {}: {}", streamId, newVersion, newEvent);
+            }
+        }
+        return observe(endPosition);
+    }
+
+    private long saveEventsAlone(UUID streamId, List<Envelope<Event>> newEvents, int expectedVersion) {
+        try {
+            var params = new MapSqlParameterSource()
+                    .addValue("stream_id", streamId)
+                    .addValue("expected_version", expectedVersion)
+                    .addValue("codec", codec.getId())
+                    .addValue("data", byteaArray(serializeData(newEvents.stream())), Types.ARRAY)
+                    .addValue("metadata", byteaArray(serializeMetadata(newEvents.stream())), Types.ARRAY)
+                    .addValue("types", array("text", eventTypeIds(newEvents.stream())), Types.ARRAY)
+                    .addValue("expires", array("text", eventExpirations(newEvents.stream())), Types.ARRAY);
+            if (sequencing == Sequencing.SEQUENCER) {
+                jdbcTemplate.queryForObject(
+                        "SELECT save_events_unsequenced(:stream_id, :expected_version, :codec :: INT2, :data, :metadata, :types, :expires :: TIMESTAMPTZ [])",
+                        params, Integer.class);
+                if (newEvents.isEmpty()) {
+                    return getCurrentPosition();
                 }
+                // If we crash before this, the events will be sequenced when their stream is read
+                // or by the periodic sequencing. Until then the new events are not visible to readers.
+                return awaitSequencing(new PendingSave(streamId, newEvents, expectedVersion));
+            } else {
+                return jdbcTemplate.queryForObject(
+                        "SELECT save_events(:stream_id, :expected_version, :codec :: INT2, :data, :metadata, :types, :expires :: TIMESTAMPTZ [])",
+                        params, Long.class);
             }
-            return endPosition;
 
         } catch (UncategorizedSQLException e) {
-            if (e.getCause() instanceof PSQLException) {
-                var serverError = ((PSQLException) e.getCause()).getServerErrorMessage();
-                var m = OPTIMISTIC_LOCKING_FAILURE_MESSAGE.matcher(serverError.getMessage());
-                if (m.matches()) {
-                    var currentVersion = m.group(1);
-                    throw new OptimisticLockingException("expected version " + expectedVersion +
-                            " but was " + currentVersion + " for stream " + streamId, e);
+            var m = OPTIMISTIC_LOCKING_FAILURE_MESSAGE.matcher(serverErrorMessage(e));
+            if (m.matches()) {
+                var currentVersion = Integer.parseInt(m.group(1));
+                throw optimisticLockingFailure(streamId, expectedVersion, currentVersion, e);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public long saveEvents(List<StreamAppend> appends) {
+        StreamAppend.checkDistinctStreams(appends);
+        long endPosition;
+        try {
+            var params = new MapSqlParameterSource()
+                    .addValue("stream_ids", array("uuid", appends.stream().map(append -> append.streamId).toArray()), Types.ARRAY)
+                    .addValue("expected_versions", array("int4", appends.stream().map(append -> append.expectedVersion).toArray()), Types.ARRAY)
+                    .addValue("event_counts", array("int4", appends.stream().map(append -> append.newEvents.size()).toArray()), Types.ARRAY)
+                    .addValue("codec", codec.getId())
+                    .addValue("data", byteaArray(serializeData(appends.stream().flatMap(append -> append.newEvents.stream()))), Types.ARRAY)
+                    .addValue("metadata", byteaArray(serializeMetadata(appends.stream().flatMap(append -> append.newEvents.stream()))), Types.ARRAY)
+                    .addValue("types", array("text", eventTypeIds(appends.stream().flatMap(append -> append.newEvents.stream()))), Types.ARRAY)
+                    .addValue("expires", array("text", eventExpirations(appends.stream().flatMap(append -> append.newEvents.stream()))), Types.ARRAY);
+            // uses the table lock regardless of the sequencing strategy, because all streams must commit together
+            endPosition = jdbcTemplate.queryForObject(
+                    "SELECT save_events_atomic(:stream_ids, :expected_versions, :event_counts, :codec :: INT2, :data, :metadata, :types, :expires :: TIMESTAMPTZ [])",
+                    params, Long.class);
+
+        } catch (UncategorizedSQLException e) {
+            var m = MULTI_STREAM_OPTIMISTIC_LOCKING_FAILURE_MESSAGE.matcher(serverErrorMessage(e));
+            if (m.matches()) {
+                var streamId = UUID.fromString(m.group(1));
+                var currentVersion = Integer.parseInt(m.group(2));
+                var expectedVersion = appends.stream()
+                        .filter(append -> append.streamId.equals(streamId))
+                        .findFirst().orElseThrow().expectedVersion;
+                throw optimisticLockingFailure(streamId, expectedVersion, currentVersion, e);
+            }
+            throw e;
+        }
+
+        if (log.isTraceEnabled()) {
+            for (var append : appends) {
+                for (var i = 0; i < append.newEvents.size(); i++) {
+                    log.trace("Saved stream {} version {}: {}", append.streamId, append.expectedVersion + 1 + i, append.newEvents.get(i));
+                }
+            }
+        }
+        return observe(endPosition);
+    }
+
+    private static String serverErrorMessage(UncategorizedSQLException e) {
+        if (e.getCause() instanceof PSQLException) {
+            var serverError = ((PSQLException) e.getCause()).getServerErrorMessage();
+            if (serverError != null) {
+                return serverError.getMessage();
+            }
+        }
+        return "";
+    }
+
+    private static OptimisticLockingException optimisticLockingFailure(UUID streamId, int expectedVersion, int currentVersion, Exception cause) {
+        return new OptimisticLockingException("expected version " + expectedVersion +
+                " but was " + currentVersion + " for stream " + streamId, cause);
+    }
+
+    private static SqlTypeValue byteaArray(String[] hexValues) {
+        // The array is created using the same connection as the query; creating it
+        // beforehand would need a second connection from the pool.
+        return new AbstractSqlTypeValue() {
+            @Override
+            protected Object createTypeValue(Connection connection, int sqlType, String typeName) throws SQLException {
+                // bytea arrays are passed in the hex format, because the driver can't convert byte[][]
+                return connection.createArrayOf("bytea", hexValues);
+            }
+        };
+    }
+
+    private static SqlTypeValue array(String elementType, Object[] values) {
+        return new AbstractSqlTypeValue() {
+            @Override
+            protected Object createTypeValue(Connection connection, int sqlType, String typeName) throws SQLException {
+                return connection.createArrayOf(elementType, values);
+            }
+        };
+    }
+
+    private long saveEventsInGroup(PendingSave save) {
+        synchronized (pendingSaves) {
+            pendingSaves.add(save);
+        }
+        // Whoever gets the lock first commits the saves of everybody who is waiting,
+        // which most likely includes the saves of those who are still waiting for the lock.
+        while (!save.result.isDone()) {
+            groupCommitLeader.lock();
+            try {
+                if (!save.result.isDone()) {
+                    // give the other writers a moment to join the group
+                    LockSupport.parkNanos(GROUP_COMMIT_WINDOW.toNanos());
+                }
+                if (!save.result.isDone()) {
+                    var group = takeGroup();
+                    if (!group.isEmpty()) {
+                        commitGroup(group);
+                    }
                 }
+            } finally {
+                groupCommitLeader.unlock();
+            }
+        }
+        try {
+            return save.result.join();
+        } catch (CompletionException e) {
+            var cause = e.getCause();
+            if (cause instanceof OptimisticLockingException) {
+                // create a new exception to get the stack trace of this thread
+                throw new OptimisticLockingException(cause.getMessage(), cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
             throw e;
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+        }
+    }
+
+    private List<PendingSave> takeGroup() {
+        synchronized (pendingSaves) {
+            // a stream can be only once in a group, because its expected version depends on the previous save
+            var group = new ArrayList<PendingSave>();
+            var streams = new HashSet<UUID>();
+            for (var it = pendingSaves.iterator(); it.hasNext() && group.size() < MAX_GROUP_SIZE; ) {
+                var save = it.next();
+                if (streams.add(save.streamId)) {
+                    group.add(save);
+                    it.remove();
+                }
+            }
+            return group;
+        }
+    }
+
+    private void commitGroup(List<PendingSave> group) {
+        try {
+            var params = new MapSqlParameterSource()
+                    .addValue("stream_ids", array("uuid", group.stream().map(save -> save.streamId).toArray()), Types.ARRAY)
+                    .addValue("expected_versions", array("int4", group.stream().map(save -> save.expectedVersion).toArray()), Types.ARRAY)
+                    .addValue("event_counts", array("int4", group.stream().map(save -> save.newEvents.size()).toArray()), Types.ARRAY)
+                    .addValue("codec", codec.getId())
+                    .addValue("data", byteaArray(serializeData(group.stream().flatMap(save -> save.newEvents.stream()))), Types.ARRAY)
+                    .addValue("metadata", byteaArray(serializeMetadata(group.stream().flatMap(save -> save.newEvents.stream()))), Types.ARRAY)
+                    .addValue("types", array("text", eventTypeIds(group.stream().flatMap(save -> save.newEvents.stream()))), Types.ARRAY)
+                    .addValue("expires", array("text", eventExpirations(group.stream().flatMap(save -> save.newEvents.stream()))), Types.ARRAY);
+            var results = jdbcTemplate.query(
+                    "SELECT result_version, result_position " +
+                            "FROM save_events_batch(:stream_ids, :expected_versions, :event_counts, :codec :: INT2, :data, :metadata, :types, :expires :: TIMESTAMPTZ [])",
+                    params,
+                    (rs, rowNum) -> new SaveResult(rs.getInt("result_version"), rs.getObject("result_position", Long.class)));
+            // the results are reported only after the transaction has committed
+            for (var i = 0; i < group.size(); i++) {
+                var save = group.get(i);
+                var result = results.get(i);
+                if (result.position != null) {
+                    save.result.complete(result.position);
+                } else {
+                    save.result.completeExceptionally(optimisticLockingFailure(save.streamId, save.expectedVersion, result.version, null));
+                }
+            }
+        } catch (Throwable t) {
+            for (var save : group) {
+                save.result.completeExceptionally(t);
+            }
+        }
+    }
+
+    private static class SaveResult {
+        final int version;
+        final Long position;
+
+        SaveResult(int version, Long position) {
+            this.version = version;
+            this.position = position;
+        }
+    }
+
+    private static class PendingSave {
+        final UUID streamId;
+        final List<Envelope<Event>> newEvents;
+        final int expectedVersion;
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        PendingSave(UUID streamId, List<Envelope<Event>> newEvents, int expectedVersion) {
+            this.streamId = streamId;
+            this.newEvents = newEvents;
+            this.expectedVersion = expectedVersion;
+        }
+    }
+
+    private long awaitSequencing(PendingSave save) {
+        synchronized (unsequencedSaves) {
+            unsequencedSaves.add(save);
+        }
+        // Whoever gets the lock first sequences the events of everybody who is waiting.
+        while (!save.result.isDone()) {
+            try {
+                sequencerLeader.lock();
+                try {
+                    if (!save.result.isDone()) {
+                        sequencePendingEvents();
+                    }
+                } finally {
+                    sequencerLeader.unlock();
+                }
+            } catch (RuntimeException e) {
+                // The events were already committed, so the save must not fail. It stays waiting
+                // until some sequencer run, maybe the periodic one, has found its position.
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new RuntimeException("Interrupted while waiting for the events to be sequenced", e);
+                }
+                log.warn("Failed to sequence the pending events, retrying", e);
+                LockSupport.parkNanos(SEQUENCER_RETRY_INTERVAL.toNanos());
+            }
+        }
+        return save.result.join();
+    }
+
+    /**
+     * Assigns the global position to all committed events which don't yet have it.
+     * Used only with {@link Sequencing#SEQUENCER}.
+     */
+    public void sequencePendingEvents() {
+        sequencerLeader.lock();
+        try {
+            List<PendingSave> waiting;
+            synchronized (unsequencedSaves) {
+                waiting = new ArrayList<>(unsequencedSaves);
+                unsequencedSaves.clear();
+            }
+            try {
+                var sequenced = new HashMap<UUID, SequencedStream>();
+                jdbcTemplate.query("SELECT result_stream_id, result_first_version, result_last_version, result_position " +
+                                "FROM sequence_events()",
+                        new MapSqlParameterSource(),
+                        rs -> {
+                            sequenced.put(UUID.fromString(rs.getString("result_stream_id")), new SequencedStream(
+                                    rs.getInt("result_first_version"), rs.getInt("result_last_version"), rs.getLong("result_position")));
+                        });
+                for (var stream : sequenced.values()) {
+                    observe(stream.lastPosition);
+                }
+                for (var save : waiting) {
+                    var newVersion = save.expectedVersion + save.newEvents.size();
+                    var stream = sequenced.get(save.streamId);
+                    if (stream != null && stream.firstVersion <= newVersion && newVersion <= stream.lastVersion) {
+                        save.result.complete(stream.lastPosition - (stream.lastVersion - newVersion));
+                    } else {
+                        // a concurrent reader of the stream or another process sequenced them already
+                        save.result.complete(getPosition(save.streamId, newVersion));
+                    }
+                }
+                if (!sequenced.isEmpty()) {
+                    log.debug("Sequenced the pending events of {} streams", sequenced.size());
+                }
+            } catch (RuntimeException e) {
+                // the saves whose position is not yet known will be completed by the next run
+                synchronized (unsequencedSaves) {
+                    for (var save : waiting) {
+                        if (!save.result.isDone()) {
+                            unsequencedSaves.add(save);
+                        }
+                    }
+                }
+                throw e;
+            }
+        } finally {
+            sequencerLeader.unlock();
+        }
+    }
+
+    private long getPosition(UUID streamId, int version) {
+        return jdbcTemplate.queryForObject("SELECT position FROM all_event WHERE stream_id = :stream_id AND version = :version",
+                new MapSqlParameterSource()
+                        .addValue("stream_id", streamId)
+                        .addValue("version", version),
+                Long.class);
+    }
+
+    private static class SequencedStream {
+        final int firstVersion;
+        final int lastVersion;
+        final long lastPosition;
+
+        SequencedStream(int firstVersion, int lastVersion, long lastPosition) {
+            this.firstVersion = firstVersion;
+            this.lastVersion = lastVersion;
+            this.lastPosition = lastPosition;
         }
     }
 
     @Override
     public List<PersistedEvent> getEventsForStream(UUID streamId, int sinceVersion) {
-        return jdbcTemplate.query("SELECT e.data, e.metadata, e.stream_id, e.version, s.position " +
-                        "FROM event e " +
-                        "JOIN event_sequence s USING (stream_id, version) " +
-                        "WHERE e.stream_id = :stream_id " +
-                        "  AND e.version > :since_version " +
-                        "ORDER BY e.version",
+        // always from the primary, because the aggregates which are loaded from these are saved back to it
+        var events = queryEventsForStream(streamId, sinceVersion);
+        while (events.contains(null)) {
+            // The stream has events which were committed but not yet sequenced, maybe because
+            // their writer crashed. Without them the next save would fail with a version conflict.
+            sequencePendingEvents();
+            events = queryEventsForStream(streamId, sinceVersion);
+        }
+        return events;
+    }
+
+    private List<PersistedEvent> queryEventsForStream(UUID streamId, int sinceVersion) {
+        return jdbcTemplate.query("SELECT codec, type, data, metadata, stream_id, version, position " +
+                        "FROM all_event " +
+                        "WHERE stream_id = :stream_id " +
+                        "  AND version > :since_version " +
+                        "ORDER BY version",
                 new MapSqlParameterSource()
                         .addValue("stream_id", streamId)
                         .addValue("since_version", sinceVersion),
-                this::eventMapping);
+                (rs, rowNum) -> rs.getObject("position") == null
+                        ? null // not yet sequenced
+                        : eventMapping(rs, rowNum));
     }
 
     @Override
     public List<PersistedEvent> getAllEvents(long sincePosition) {
-        return jdbcTemplate.query("SELECT e.data, e.metadata, e.stream_id, e.version, s.position " +
-                        "FROM event e " +
-                        "JOIN event_sequence s USING (stream_id, version) " +
-                        "WHERE s.position > :position " +
-                        "ORDER BY s.position",
+        return readJdbcTemplate(sincePosition).query("SELECT codec, type, data, metadata, stream_id, version, position " +
+                        "FROM all_event " +
+                        "WHERE position > :position " +
+                        "ORDER BY position",
                 new MapSqlParameterSource("position", sincePosition),
                 this::eventMapping);
     }
 
+    @Override
+    public List<PersistedEvent> getAllEvents(long sincePosition, Set<Class<? extends Event>> eventTypes) {
+        return readJdbcTemplate(sincePosition).query("SELECT codec, type, data, metadata, stream_id, version, position " +
+                        "FROM all_event " +
+                        "WHERE position > :position " +
+                        "  AND (type = ANY (:types) OR type IS NULL) " +
+                        "ORDER BY position",
+                new MapSqlParameterSource()
+                        .addValue("position", sincePosition)
+                        .addValue("types", array("text", typeIdsForQuery(eventTypes)), Types.ARRAY),
+                this::eventMapping)
+                .stream()
+                .filter(event -> eventTypes.contains(event.eventType))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Stream<PersistedEvent> streamAllEvents(long sincePosition) {
+        return streamEvents(sincePosition, null);
+    }
+
+    @Override
+    public Stream<PersistedEvent> streamAllEvents(long sincePosition, Set<Class<? extends Event>> eventTypes) {
+        return streamEvents(sincePosition, typeIdsForQuery(eventTypes))
+                .filter(event -> eventTypes.contains(event.eventType));
+    }
+
+    private String[] typeIdsForQuery(Set<Class<? extends Event>> eventTypes) {
+        // Events which were saved before the type registry have the class name as their type.
+        // Events which were saved in a binary format before the type column have no type, so
+        // they are always read and filtered after deserializing them.
+        return eventTypes.stream()
+                .flatMap(type -> Stream.of(this.eventTypes.getId(type), type.getName()))
+                .distinct()
+                .toArray(String[]::new);
+    }
+
+    private Stream<PersistedEvent> streamEvents(long sincePosition, String[] typeIds) {
+        var dataSource = useReplica(sincePosition) ? replicaDataSource : this.dataSource;
+        var connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            // PostgreSQL uses a server-side cursor only when autocommit is disabled and a fetch size is set;
+            // otherwise the driver would read the whole result set into memory
+            connection.setAutoCommit(false);
+            var statement = connection.prepareStatement("SELECT codec, type, data, metadata, stream_id, version, position " +
+                    "FROM all_event " +
+                    "WHERE position > ? " +
+                    (typeIds != null ? "  AND (type = ANY (?) OR type IS NULL) " : "") +
+                    "ORDER BY position");
+            statement.setFetchSize(fetchSize);
+            statement.setLong(1, sincePosition);
+            if (typeIds != null) {
+                statement.setArray(2, connection.createArrayOf("text", typeIds));
+            }
+            var cursor = new EventCursor(dataSource, connection, statement, statement.executeQuery());
+            return StreamSupport.stream(cursor, false)
+                    .onClose(cursor::close);
+        } catch (SQLException e) {
+            releaseCursorConnection(dataSource, connection);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void releaseCursorConnection(DataSource dataSource, Connection connection) {
+        try {
+            connection.rollback(); // nothing to commit; just end the read-only transaction
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            log.warn("Failed to reset connection after reading events", e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    /**
+     * Moves the events up to the given position from the event table to the archive table,
+     * which is compressed and not expected to be cached. The hot table and its indexes stay
+     * small, so that saving events and reading the latest events remain fast however long
+     * the history grows. The reads of this class see the events of both tables.
+     * <p>
+     * The events are moved in batches of {@value #ARCHIVE_BATCH_SIZE} positions, each in its
+     * own transaction, so that archiving doesn't block the writers for long.
+     *
+     * @return the number of events which were moved
+     */
+    public long archiveEvents(long untilPosition) {
+        var firstHotPosition = jdbcTemplate.queryForObject(
+                "SELECT min(position) FROM event",
+                new MapSqlParameterSource(),
+                Long.class);
+        if (firstHotPosition == null) {
+            return 0;
+        }
+        long archived = 0;
+        for (var since = firstHotPosition - 1; since < untilPosition; since += ARCHIVE_BATCH_SIZE) {
+            archived += jdbcTemplate.queryForObject(
+                    "SELECT archive_events(:since_position, :until_position)",
+                    new MapSqlParameterSource()
+                            .addValue("since_position", since)
+                            .addValue("until_position", Math.min(since + ARCHIVE_BATCH_SIZE, untilPosition)),
+                    Long.class);
+        }
+        log.debug("Archived {} events up to position {}", archived, untilPosition);
+        return archived;
+    }
+
+    /**
+     * Deletes the {@link ShortLivedEvent}s which expired before the given time.
+     * Their streams are left with gaps in their versions. The last event of a stream
+     * is kept, so that the aggregate loaded from it has the version of the stream.
+     *
+     * @return the number of events which were deleted
+     */
+    public long deleteExpiredEvents(Instant now) {
+        var deleted = jdbcTemplate.queryForObject(
+                "SELECT delete_expired_events(:now :: TIMESTAMPTZ)",
+                new MapSqlParameterSource("now", now.toString()),
+                Long.class);
+        log.debug("Deleted {} events which expired before {}", deleted, now);
+        return deleted;
+    }
+
     @Override
     public int getCurrentVersion(UUID streamId) {
         var version = jdbcTemplate.queryForList(
@@ -125,62 +666,157 @@ public class PsqlEventStore implements EventStore {
 
     @Override
     public long getCurrentPosition() {
+        return observe(getHeadPosition(jdbcTemplate));
+    }
+
+    private long observe(long position) {
+        observedPosition.accumulateAndGet(position, Math::max);
+        return position;
+    }
+
+    private static long getHeadPosition(NamedParameterJdbcTemplate jdbcTemplate) {
         var position = jdbcTemplate.queryForList(
-                "SELECT position FROM event_sequence ORDER BY position DESC  LIMIT 1",
+                "SELECT position FROM event_head",
                 new MapSqlParameterSource(),
                 Long.class);
         return position.isEmpty() ? BEGINNING : position.get(0);
     }
 
+    private NamedParameterJdbcTemplate readJdbcTemplate(long sincePosition) {
+        return useReplica(sincePosition) ? replicaJdbcTemplate : jdbcTemplate;
+    }
+
+    private boolean useReplica(long sincePosition) {
+        if (replicaDataSource == null) {
+            return false;
+        }
+        // The replica commits the position together with the events, so when it has reached
+        // the required position, it contains every event up to it which the primary would return.
+        var requiredPosition = Math.max(sincePosition, observedPosition.get());
+        if (replicaPosition >= requiredPosition) {
+            return true; // the replica's position only grows, so there is no need to ask it again
+        }
+        try {
+            replicaPosition = getHeadPosition(replicaJdbcTemplate);
+        } catch (DataAccessException e) {
+            log.warn("Failed to read the position of the read replica, reading from the primary instead", e);
+            return false;
+        }
+        if (replicaPosition >= requiredPosition) {
+            return true;
+        }
+        log.debug("Read replica is at position {} but position {} is required, reading from the primary", replicaPosition, requiredPosition);
+        return false;
+    }
+
     private PersistedEvent eventMapping(ResultSet rs, int rowNum) throws SQLException {
-        var data = rs.getString("data");
-        var metadata = rs.getString("metadata");
-        var event = deserialize(data, metadata);
+        var codecId = rs.getInt("codec");
+        var type = rs.getString("type");
+        var data = rs.getBytes("data");
+        var metadata = rs.getBytes("metadata");
         var streamId = UUID.fromString(rs.getString("stream_id"));
         var version = rs.getInt("version");
         var position = rs.getLong("position");
-        return new PersistedEvent(event, streamId, version, position);
+        var codec = getCodec(codecId);
+        if (type == null) {
+            // saved in a binary format before the type column
+            type = codec.readEventType(metadata);
+        }
+        var eventType = eventTypes.getType(type).asSubclass(Event.class);
+        return new PersistedEvent(eventType, () -> codec.deserializeEvent(data, metadata, eventTypes), streamId, version, position);
+    }
+
+    private class EventCursor extends Spliterators.AbstractSpliterator<PersistedEvent> {
+
+        private final DataSource dataSource;
+        private final Connection connection;
+        private final PreparedStatement statement;
+        private final ResultSet rs;
+        private int rowNum = 0;
+
+        EventCursor(DataSource dataSource, Connection connection, PreparedStatement statement, ResultSet rs) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.dataSource = dataSource;
+            this.connection = connection;
+            this.statement = statement;
+            this.rs = rs;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super PersistedEvent> action) {
+            try {
+                if (!rs.next()) {
+                    return false;
+                }
+                action.accept(eventMapping(rs, rowNum++));
+                return true;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void close() {
+            try {
+                rs.close();
+                statement.close();
+            } catch (SQLException e) {
+                log.warn("Failed to close cursor", e);
+            } finally {
+                releaseCursorConnection(dataSource, connection);
+            }
+        }
     }
 
-    private String[] serializeData(List<Envelope<Event>> events) {
-        return events.stream()
+    private String[] serializeData(Stream<Envelope<Event>> events) {
+        return events
                 .map(event -> event.payload)
-                .map(this::serialize)
+                .map(codec::serialize)
+                .map(PsqlEventStore::toByteaHex)
+                .toArray(String[]::new);
+    }
+
+    private String[] serializeMetadata(Stream<Envelope<Event>> events) {
+        return events
+                .map(this::getMetadata)
+                .map(codec::serialize)
+                .map(PsqlEventStore::toByteaHex)
                 .toArray(String[]::new);
     }
 
-    private String[] serializeMetadata(List<Envelope<Event>> events) {
-        return events.stream()
-                .map(PsqlEventStore::getMetadata)
-                .map(this::serialize)
+    private String[] eventTypeIds(Stream<Envelope<Event>> events) {
+        return events
+                .map(event -> eventTypes.getId(event.payload.getClass()))
                 .toArray(String[]::new);
     }
 
-    private static EventMetadata getMetadata(Envelope<Event> event) {
+    private static String[] eventExpirations(Stream<Envelope<Event>> events) {
+        // ISO-8601 in UTC, so that the session's time zone doesn't matter
+        return events
+                .map(event -> event.payload instanceof ShortLivedEvent
+                        ? ((ShortLivedEvent) event.payload).expires().toString()
+                        : null)
+                .toArray(String[]::new);
+    }
+
+    private static String toByteaHex(byte[] bytes) {
+        return "\\x" + BaseEncoding.base16().lowerCase().encode(bytes);
+    }
+
+    private EventMetadata getMetadata(Envelope<Event> event) {
         var meta = new EventMetadata();
         meta.messageId = event.messageId;
         meta.correlationId = event.correlationId;
         meta.causationId = event.causationId;
-        meta.type = event.payload.getClass().getName();
+        meta.type = eventTypes.getId(event.payload.getClass());
         meta.version = 1; // TODO: versioning support
         return meta;
     }
 
-    private String serialize(Object event) {
-        try {
-            return objectMapper.writeValueAsString(event);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Failed to serialize: " + event, e);
-        }
-    }
-
-    private Envelope<Event> deserialize(String dataJson, String metadataJson) {
-        try {
-            var meta = objectMapper.readValue(metadataJson, EventMetadata.class);
-            var data = (Event) objectMapper.readValue(dataJson, Class.forName(meta.type));
-            return new Envelope<>(data, meta.messageId, meta.correlationId, meta.causationId);
-        } catch (IOException | ClassNotFoundException e) {
-            throw new RuntimeException(e);
+    private EventCodec getCodec(int codecId) {
+        var codec = codecsById.get(codecId);
+        if (codec == null) {
+            throw new IllegalStateException("Unknown event codec: " + codecId);
         }
+        return codec;
     }
 }
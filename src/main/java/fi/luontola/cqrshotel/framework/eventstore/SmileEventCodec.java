@@ -0,0 +1,24 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * <a href="https://github.com/FasterXML/smile-format-specification">Smile</a>,
+ * a binary JSON format which is more compact and faster to parse than textual JSON.
+ */
+public class SmileEventCodec extends JacksonEventCodec {
+
+    public static final int ID = 2;
+
+    public SmileEventCodec(ObjectMapper smileMapper) {
+        super(ID, smileMapper);
+        if (!(smileMapper.getFactory() instanceof SmileFactory)) {
+            throw new IllegalArgumentException("Expected an ObjectMapper with a SmileFactory, but was " + smileMapper.getFactory());
+        }
+    }
+}
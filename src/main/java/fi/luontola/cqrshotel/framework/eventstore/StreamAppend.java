@@ -0,0 +1,38 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.util.Struct;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The events to append to one stream in {@link EventStore#saveEvents(List)}.
+ */
+public class StreamAppend extends Struct {
+
+    public final UUID streamId;
+    public final List<Envelope<Event>> newEvents;
+    public final int expectedVersion;
+
+    public StreamAppend(UUID streamId, List<Envelope<Event>> newEvents, int expectedVersion) {
+        this.streamId = streamId;
+        this.newEvents = newEvents;
+        this.expectedVersion = expectedVersion;
+    }
+
+    static void checkDistinctStreams(List<StreamAppend> appends) {
+        var streamIds = new HashSet<UUID>();
+        for (var append : appends) {
+            if (!streamIds.add(append.streamId)) {
+                throw new IllegalArgumentException("stream " + append.streamId + " appears more than once");
+            }
+        }
+    }
+}
@@ -1,4 +1,4 @@
-// Copyright © 2016-2018 Esko Luontola
+// Copyright © 2016-2019 Esko Luontola
 // This software is released under the Apache License 2.0.
 // The license text is at http://www.apache.org/licenses/LICENSE-2.0
 
@@ -8,6 +8,9 @@ import fi.luontola.cqrshotel.framework.Envelope;
 import fi.luontola.cqrshotel.framework.Event;
 import fi.luontola.cqrshotel.framework.util.EventListeners;
 
+import java.util.Optional;
+import java.util.Set;
+
 public abstract class AnnotatedProjection implements Projection {
 
     private final EventListeners eventListeners = EventListeners.of(this);
@@ -15,4 +18,10 @@ public abstract class AnnotatedProjection implements Projection {
     public void apply(Envelope<Event> event) {
         eventListeners.send(event.payload);
     }
+
+    @Override
+    public Optional<Set<Class<? extends Event>>> getEventTypes() {
+        // the other events would be ignored anyway
+        return Optional.of(eventListeners.getEventTypes());
+    }
 }
@@ -4,30 +4,87 @@
 
 package fi.luontola.cqrshotel.framework.projections;
 
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.Snapshottable;
 import fi.luontola.cqrshotel.framework.eventstore.EventStore;
+import fi.luontola.cqrshotel.framework.eventstore.PersistedEvent;
+import fi.luontola.cqrshotel.framework.snapshots.ProjectionSnapshot;
+import fi.luontola.cqrshotel.framework.snapshots.SnapshotStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.ParameterizedType;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class InMemoryProjection implements UpdatableProjection {
 
+    static final int BATCH_SIZE = 100;
+
     private final Logger log;
 
     private final Projection projection;
+    private final Optional<Set<Class<? extends Event>>> eventTypes;
     private final EventStore eventStore;
     private final PriorityBlockingQueue<Waiter> waiters = new PriorityBlockingQueue<>();
     private volatile long position = EventStore.BEGINNING;
+    private SnapshotStore snapshotStore;
+    private Class<?> snapshotType;
+    private long snapshotInterval;
+    private long snapshotPosition = EventStore.BEGINNING;
+    private boolean snapshotRestored = false;
 
     public InMemoryProjection(Projection projection, EventStore eventStore) {
         this.log = LoggerFactory.getLogger(projection.getClass());
         this.projection = projection;
+        this.eventTypes = projection.getEventTypes();
         this.eventStore = eventStore;
     }
 
+    /**
+     * Makes the first update start from the projection's latest snapshot instead of
+     * the beginning of the event store. A new snapshot is saved whenever the position
+     * has advanced by the interval. The projection must implement {@link Snapshottable}.
+     */
+    public void enableSnapshots(SnapshotStore snapshotStore, long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive, but was " + interval);
+        }
+        this.snapshotType = getSnapshotType();
+        this.snapshotStore = snapshotStore;
+        this.snapshotInterval = interval;
+    }
+
+    private Class<?> getSnapshotType() {
+        for (var type : projection.getClass().getGenericInterfaces()) {
+            if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == Snapshottable.class) {
+                return (Class<?>) ((ParameterizedType) type).getActualTypeArguments()[0];
+            }
+        }
+        throw new IllegalArgumentException("Not snapshottable: " + projection.getClass());
+    }
+
+    Optional<Set<Class<? extends Event>>> getEventTypes() {
+        return eventTypes;
+    }
+
+    boolean isPartitionedByStream() {
+        return projection.isPartitionedByStream();
+    }
+
+    String getProjectionName() {
+        return projection.getProjectionName();
+    }
+
     @Override
     public final long getPosition() {
         return position;
@@ -35,14 +92,160 @@ public class InMemoryProjection implements UpdatableProjection {
 
     @Override
     public synchronized final void update() {
-        var events = eventStore.getAllEvents(position);
-        if (!events.isEmpty()) {
-            var last = events.get(events.size() - 1);
-            log.debug("Updating projection with {} events from position {} to {}", events.size(), position, last.position);
+        update(BATCH_SIZE, this::applyBatch);
+    }
+
+    /**
+     * Reads the new events from the event store and gives them to {@code applier}
+     * in batches of at most {@code batchSize} events, so that the caller can decide
+     * how they are applied. The applier must advance the position to the last event
+     * of each batch.
+     */
+    synchronized void update(int batchSize, Consumer<List<PersistedEvent>> applier) {
+        restoreSnapshot();
+        var startPosition = position;
+        if (eventTypes.isPresent()) {
+            // all the events up to the head will have been seen, even though most of them are skipped
+            var head = eventStore.getCurrentPosition();
+            try (var events = eventStore.streamAllEvents(startPosition, eventTypes.get())) {
+                applyInBatches(events, batchSize, applier);
+            }
+            skipTo(head);
+        } else {
+            try (var events = eventStore.streamAllEvents(startPosition)) {
+                applyInBatches(events, batchSize, applier);
+            }
+        }
+        if (position != startPosition) {
+            log.debug("Updated projection from position {} to {}", startPosition, position);
+        }
+        saveSnapshotIfNeeded();
+    }
+
+    /**
+     * Must be called before applying the first event. Does nothing after the first call.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void restoreSnapshot() {
+        if (snapshotStore == null || snapshotRestored) {
+            return;
+        }
+        var snapshot = snapshotStore.getProjectionSnapshot(projection.getProjectionName(), snapshotType);
+        if (snapshot.isPresent() && position == EventStore.BEGINNING) {
+            ((Snapshottable<Object>) projection).restoreSnapshot(snapshot.get().state);
+            snapshotPosition = snapshot.get().position;
+            skipTo(snapshot.get().position);
+            log.info("Restored projection from a snapshot at position {}", position);
+        }
+        snapshotRestored = true;
+    }
+
+    void saveSnapshotIfNeeded() {
+        if (snapshotStore == null || position - snapshotPosition < snapshotInterval) {
+            return;
+        }
+        var snapshotPosition = position;
+        try {
+            var state = ((Snapshottable<?>) projection).takeSnapshot();
+            snapshotStore.saveProjectionSnapshot(projection.getProjectionName(), new ProjectionSnapshot<>(snapshotPosition, state));
+        } catch (RuntimeException e) {
+            // snapshots are only an optimization; try again after the next interval
+            log.warn("Failed to save a snapshot at position {}", snapshotPosition, e);
         }
+        this.snapshotPosition = snapshotPosition;
+    }
+
+    private static void applyInBatches(Stream<PersistedEvent> events, int batchSize, Consumer<List<PersistedEvent>> applier) {
+        var batch = new ArrayList<PersistedEvent>(batchSize);
+        for (var it = events.iterator(); it.hasNext(); ) {
+            batch.add(it.next());
+            if (batch.size() == batchSize) {
+                applier.accept(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            applier.accept(batch);
+        }
+    }
+
+    /**
+     * Publishes the new position and notifies the waiters only once per batch.
+     * After a failure the position is that of the last applied event, so that
+     * the next update continues from the failed event.
+     */
+    void applyBatch(List<PersistedEvent> events) {
+        var progress = new AtomicInteger(0);
+        try {
+            applyInOrder(events, progress);
+        } finally {
+            if (progress.get() > 0) {
+                position = events.get(progress.get() - 1).position;
+                notifyWaiters();
+            }
+        }
+    }
+
+    /**
+     * Applies the events which this projection hasn't yet seen, and then moves the position
+     * to {@code endPosition}, which may be past the last event if the events between them
+     * are not needed by this projection.
+     */
+    void applyBatch(List<PersistedEvent> events, long endPosition) {
+        var newEvents = new ArrayList<PersistedEvent>(events.size());
         for (var event : events) {
-            projection.apply(event.event);
-            position = event.position;
+            if (event.position > position) {
+                newEvents.add(event);
+            }
+        }
+        applyBatch(newEvents);
+        skipTo(endPosition);
+    }
+
+    /**
+     * Applies the events without advancing the position, so it may be called concurrently
+     * for the events of different streams. The caller must {@link #skipTo} the position
+     * after all the events up to it have been applied. Starts from and updates the number
+     * of applied events in {@code progress}, so that after a failure the caller can continue
+     * from the failed event.
+     */
+    void applyConcurrently(List<PersistedEvent> events, AtomicInteger progress) {
+        applyInOrder(events, progress);
+    }
+
+    private void applyInOrder(List<PersistedEvent> events, AtomicInteger progress) {
+        while (progress.get() < events.size()) {
+            var remaining = events.subList(progress.get(), events.size());
+            var applied = applyAtOnce(remaining);
+            if (applied == 0) {
+                projection.apply(remaining.get(0).getEvent());
+                applied = 1;
+            }
+            progress.addAndGet(applied);
+        }
+    }
+
+    private int applyAtOnce(List<PersistedEvent> events) {
+        int applied;
+        try {
+            applied = projection.applyBatch(events);
+        } catch (RuntimeException e) {
+            log.warn("Failed to apply a batch of events from position {}, applying them one at a time", events.get(0).position, e);
+            return 0;
+        }
+        if (applied < 0 || applied > events.size()) {
+            throw new IllegalStateException("applied " + applied + " events of a batch of " + events.size());
+        }
+        return applied;
+    }
+
+    /**
+     * Moves the position over events which this projection doesn't need
+     * or which were applied concurrently.
+     */
+    void skipTo(long newPosition) {
+        if (newPosition > position) {
+            position = newPosition;
             notifyWaiters();
         }
     }
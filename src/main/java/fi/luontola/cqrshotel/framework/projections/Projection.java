@@ -1,4 +1,4 @@
-// Copyright © 2016-2018 Esko Luontola
+// Copyright © 2016-2019 Esko Luontola
 // This software is released under the Apache License 2.0.
 // The license text is at http://www.apache.org/licenses/LICENSE-2.0
 
@@ -7,10 +7,16 @@ package fi.luontola.cqrshotel.framework.projections;
 import fi.luontola.cqrshotel.framework.Envelope;
 import fi.luontola.cqrshotel.framework.Event;
 import fi.luontola.cqrshotel.framework.Query;
+import fi.luontola.cqrshotel.framework.eventstore.PersistedEvent;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
 /**
  * Projections are the way for reading and analyzing event-sourced data.
- * They will be called for every {@link Event event} in the system.
+ * They will be called for every {@link Event event} in the system,
+ * or only for the types of events they ask for.
  * This way projections can construct a read-optimized model from the event data
  * for the purpose of serving {@link Query queries} efficiently.
  */
@@ -18,6 +24,35 @@ public interface Projection {
 
     void apply(Envelope<Event> event);
 
+    /**
+     * Applies many events at once, so that a projection may coalesce its updates.
+     * Returns how many of the events, from the start of the list, were applied.
+     * The next event is then given to {@link #apply} and the rest to this method again.
+     * <p>
+     * If this throws, it MUST NOT have applied any of the events, because they will be
+     * retried one at a time. Must not keep a reference to the list.
+     */
+    default int applyBatch(List<PersistedEvent> events) {
+        return 0;
+    }
+
+    /**
+     * The types of events which this projection needs, so that the other events
+     * don't need to be read for it, or empty if it needs all events.
+     */
+    default Optional<Set<Class<? extends Event>>> getEventTypes() {
+        return Optional.empty();
+    }
+
+    /**
+     * Whether the projection needs the events in order only within each stream, so that
+     * the events of different streams may be applied concurrently. Then the projection
+     * can be rebuilt in parallel. See {@link SharedEventReader}.
+     */
+    default boolean isPartitionedByStream() {
+        return false;
+    }
+
     default String getProjectionName() {
         return getClass().getSimpleName();
     }
@@ -0,0 +1,355 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.projections;
+
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.eventstore.EventStore;
+import fi.luontola.cqrshotel.framework.eventstore.PersistedEvent;
+import fi.luontola.cqrshotel.framework.util.SingleThreadedTriggerableWorker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Reads the global log once for many projections. Each event is read from the event store
+ * and deserialized only once, and then given to every projection which needs it. Each
+ * projection is updated in its own thread from a bounded buffer, so a slow projection
+ * doesn't delay the others. When the buffer of a projection is full, the events are not
+ * given to it, and it later catches up by reading the event store from its own position.
+ * <p>
+ * The projections which are {@link Projection#isPartitionedByStream() partitioned by stream}
+ * are rebuilt in parallel: until they have caught up with the head of the event store as it
+ * was on the first update, the buffered events, as well as the events which are read when
+ * catching up, are divided by their stream among all threads and the projection's position
+ * is advanced only after all of them have been applied.
+ * The progress of each thread is remembered, so that after a failure the retry continues
+ * every partition from where it stopped.
+ */
+public class SharedEventReader {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedEventReader.class);
+
+    private static final int BATCH_SIZE = InMemoryProjection.BATCH_SIZE;
+    private static final int BUFFER_BATCHES = 16;
+
+    private final EventStore eventStore;
+    private final int parallelism;
+    private final ExecutorService rebuildExecutor;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile long position = EventStore.BEGINNING;
+    private volatile boolean started = false;
+
+    public SharedEventReader(EventStore eventStore) {
+        this(eventStore, Runtime.getRuntime().availableProcessors());
+    }
+
+    public SharedEventReader(EventStore eventStore, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive, but was " + parallelism);
+        }
+        this.eventStore = eventStore;
+        this.parallelism = parallelism;
+        this.rebuildExecutor = Executors.newFixedThreadPool(parallelism);
+    }
+
+    /**
+     * Must be called before the first {@link #update()}.
+     */
+    public UpdatableProjection subscribe(Projection projection) {
+        return subscribe(new InMemoryProjection(projection, eventStore));
+    }
+
+    /**
+     * Must be called before the first {@link #update()}.
+     */
+    public UpdatableProjection subscribe(InMemoryProjection projection) {
+        if (started) {
+            throw new IllegalStateException("Cannot subscribe after reading events");
+        }
+        var subscription = new Subscription(projection, projection.getEventTypes(), parallelism, rebuildExecutor);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Reads the new events and gives them to the projections. Doesn't wait for
+     * the projections to apply them.
+     */
+    public synchronized void update() {
+        // all the events up to the head will have been seen, even though some of them are skipped
+        var head = eventStore.getCurrentPosition();
+        if (!started) {
+            position = getStartingPosition();
+            for (var subscription : subscriptions) {
+                subscription.rebuildUntil = head;
+            }
+            started = true;
+        }
+        var startPosition = position;
+        var eventTypes = getEventTypesOfAllProjections();
+        try (var events = eventTypes.isPresent()
+                ? eventStore.streamAllEvents(startPosition, eventTypes.get())
+                : eventStore.streamAllEvents(startPosition)) {
+            var batch = new ArrayList<PersistedEvent>(BATCH_SIZE);
+            var it = events.iterator();
+            while (it.hasNext()) {
+                batch.add(it.next());
+                if (batch.size() == BATCH_SIZE) {
+                    publish(batch, batch.get(batch.size() - 1).position);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            var endPosition = batch.isEmpty() ? position : batch.get(batch.size() - 1).position;
+            publish(batch, Math.max(endPosition, head));
+        }
+        if (position != startPosition) {
+            log.debug("Read events from position {} to {}", startPosition, position);
+        }
+    }
+
+    private long getStartingPosition() {
+        // the projections which were restored from a snapshot will skip the events they have already seen
+        var startingPosition = Long.MAX_VALUE;
+        for (var subscription : subscriptions) {
+            subscription.projection.restoreSnapshot();
+            startingPosition = Math.min(startingPosition, subscription.projection.getPosition());
+        }
+        return subscriptions.isEmpty() ? EventStore.BEGINNING : startingPosition;
+    }
+
+    private Optional<Set<Class<? extends Event>>> getEventTypesOfAllProjections() {
+        var union = new HashSet<Class<? extends Event>>();
+        for (var subscription : subscriptions) {
+            if (subscription.eventTypes.isEmpty()) {
+                return Optional.empty();
+            }
+            union.addAll(subscription.eventTypes.get());
+        }
+        return Optional.of(union);
+    }
+
+    private void publish(List<PersistedEvent> events, long endPosition) {
+        if (endPosition <= position) {
+            return;
+        }
+        for (var subscription : subscriptions) {
+            subscription.offer(new Batch(subscription.filter(events), endPosition));
+        }
+        position = endPosition;
+    }
+
+    public void shutdown(Duration timeout) throws InterruptedException {
+        for (var subscription : subscriptions) {
+            subscription.worker.shutdown();
+        }
+        for (var subscription : subscriptions) {
+            subscription.worker.awaitTermination(timeout);
+        }
+        rebuildExecutor.shutdown();
+        rebuildExecutor.awaitTermination(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+
+    private static class Batch {
+        final List<PersistedEvent> events;
+        final long endPosition;
+
+        Batch(List<PersistedEvent> events, long endPosition) {
+            this.events = events;
+            this.endPosition = endPosition;
+        }
+    }
+
+    private static class Partitions {
+        final int bufferedBatches;
+        final long endPosition;
+        final List<List<PersistedEvent>> events = new ArrayList<>();
+        final List<AtomicInteger> progress = new ArrayList<>();
+
+        Partitions(List<Batch> batches, int bufferedBatches, int parallelism, long position) {
+            this.bufferedBatches = bufferedBatches;
+            this.endPosition = batches.get(batches.size() - 1).endPosition;
+            for (int i = 0; i < parallelism; i++) {
+                events.add(new ArrayList<>());
+                progress.add(new AtomicInteger(0));
+            }
+            for (var batch : batches) {
+                for (var event : batch.events) {
+                    if (event.position > position) {
+                        events.get(Math.floorMod(event.streamId.hashCode(), parallelism)).add(event);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Subscription implements UpdatableProjection {
+
+        final InMemoryProjection projection;
+        final Optional<Set<Class<? extends Event>>> eventTypes;
+        final BlockingQueue<Batch> buffer = new ArrayBlockingQueue<>(BUFFER_BATCHES);
+        final SingleThreadedTriggerableWorker worker;
+        final int parallelism;
+        final ExecutorService rebuildExecutor;
+        long rebuildUntil = EventStore.BEGINNING;
+        private Partitions unfinished;
+        private volatile boolean lagging = false;
+
+        Subscription(InMemoryProjection projection, Optional<Set<Class<? extends Event>>> eventTypes,
+                     int parallelism, ExecutorService rebuildExecutor) {
+            this.projection = projection;
+            this.eventTypes = eventTypes;
+            this.parallelism = parallelism;
+            this.rebuildExecutor = rebuildExecutor;
+            this.worker = new SingleThreadedTriggerableWorker(this::update);
+        }
+
+        List<PersistedEvent> filter(List<PersistedEvent> events) {
+            if (eventTypes.isEmpty()) {
+                return events;
+            }
+            var types = eventTypes.get();
+            return events.stream()
+                    .filter(event -> types.contains(event.eventType))
+                    .collect(Collectors.toList());
+        }
+
+        /**
+         * Never blocks, so that a projection which is slow or keeps failing
+         * can't stop the others from being updated.
+         */
+        void offer(Batch batch) {
+            if (!lagging && !buffer.offer(batch)) {
+                log.warn("Projection {} is lagging behind, it will catch up by reading the event store",
+                        projection.getProjectionName());
+                lagging = true;
+            }
+            worker.trigger();
+        }
+
+        /**
+         * Applies the buffered events. A batch is removed from the buffer only after all of its
+         * events were applied, so that after a failure the next update continues from the
+         * failed event.
+         */
+        @Override
+        public synchronized void update() {
+            if (unfinished != null) {
+                applyInParallel();
+            }
+            if (lagging) {
+                catchUp();
+            }
+            while (!buffer.isEmpty()) {
+                if (unfinished != null || isRebuilding()) {
+                    applyInParallel();
+                } else {
+                    applyInOrder(buffer.peek());
+                }
+            }
+            projection.saveSnapshotIfNeeded();
+        }
+
+        private void catchUp() {
+            // The batches which are buffered after this are applied after catching up,
+            // skipping the events which were already read from the event store.
+            lagging = false;
+            buffer.clear();
+            try {
+                var batchSize = isRebuilding() ? BATCH_SIZE * BUFFER_BATCHES : BATCH_SIZE;
+                projection.update(batchSize, this::applyCaughtUp);
+            } catch (RuntimeException e) {
+                lagging = true;
+                throw e;
+            }
+        }
+
+        private void applyCaughtUp(List<PersistedEvent> events) {
+            if (isRebuilding()) {
+                var batch = new Batch(events, events.get(events.size() - 1).position);
+                unfinished = new Partitions(List.of(batch), 0, parallelism, projection.getPosition());
+                applyInParallel();
+            } else {
+                projection.applyBatch(events);
+            }
+        }
+
+        private boolean isRebuilding() {
+            return parallelism > 1
+                    && projection.isPartitionedByStream()
+                    && projection.getPosition() < rebuildUntil;
+        }
+
+        private void applyInOrder(Batch batch) {
+            projection.applyBatch(batch.events, batch.endPosition);
+            buffer.remove();
+        }
+
+        private void applyInParallel() {
+            if (unfinished == null) {
+                var batches = new ArrayList<>(buffer);
+                unfinished = new Partitions(batches, batches.size(), parallelism, projection.getPosition());
+            }
+            var partitions = unfinished;
+            var tasks = new ArrayList<Callable<Void>>();
+            for (int i = 0; i < parallelism; i++) {
+                var events = partitions.events.get(i);
+                var progress = partitions.progress.get(i);
+                if (progress.get() < events.size()) {
+                    tasks.add(() -> {
+                        projection.applyConcurrently(events, progress);
+                        return null;
+                    });
+                }
+            }
+            try {
+                for (var result : rebuildExecutor.invokeAll(tasks)) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                // the next update will continue every partition from its progress
+                throw new RuntimeException(e.getCause());
+            }
+            projection.skipTo(partitions.endPosition);
+            for (int i = 0; i < partitions.bufferedBatches; i++) {
+                buffer.remove();
+            }
+            unfinished = null;
+        }
+
+        @Override
+        public long getPosition() {
+            return projection.getPosition();
+        }
+
+        @Override
+        public boolean awaitPosition(long expectedPosition, Duration timeout) throws InterruptedException {
+            return projection.awaitPosition(expectedPosition, timeout);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.snapshots;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class InMemorySnapshotStore implements SnapshotStore {
+
+    private final Map<UUID, Snapshot<?>> snapshots = new ConcurrentHashMap<>();
+    private final Map<String, ProjectionSnapshot<?>> projectionSnapshots = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <S> Optional<Snapshot<S>> getSnapshot(UUID streamId, Class<S> type) {
+        return Optional.ofNullable(snapshots.get(streamId))
+                .filter(snapshot -> type.isInstance(snapshot.state))
+                .map(snapshot -> (Snapshot<S>) snapshot);
+    }
+
+    @Override
+    public void saveSnapshot(UUID streamId, Snapshot<?> snapshot) {
+        snapshots.merge(streamId, snapshot, (previous, next) -> next.version >= previous.version ? next : previous);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <S> Optional<ProjectionSnapshot<S>> getProjectionSnapshot(String projectionName, Class<S> type) {
+        return Optional.ofNullable(projectionSnapshots.get(projectionName))
+                .filter(snapshot -> type.isInstance(snapshot.state))
+                .map(snapshot -> (ProjectionSnapshot<S>) snapshot);
+    }
+
+    @Override
+    public void saveProjectionSnapshot(String projectionName, ProjectionSnapshot<?> snapshot) {
+        projectionSnapshots.merge(projectionName, snapshot, (previous, next) -> next.position >= previous.position ? next : previous);
+    }
+}
@@ -0,0 +1,18 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.snapshots;
+
+import fi.luontola.cqrshotel.framework.util.Struct;
+
+public class ProjectionSnapshot<S> extends Struct {
+
+    public final long position;
+    public final S state;
+
+    public ProjectionSnapshot(long position, S state) {
+        this.position = position;
+        this.state = state;
+    }
+}
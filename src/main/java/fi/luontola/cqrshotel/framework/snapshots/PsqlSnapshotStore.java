@@ -0,0 +1,114 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.snapshots;
+
+import fi.luontola.cqrshotel.framework.eventstore.EventCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.Optional;
+import java.util.UUID;
+
+public class PsqlSnapshotStore implements SnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(PsqlSnapshotStore.class);
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final EventCodec codec;
+
+    public PsqlSnapshotStore(DataSource dataSource, EventCodec codec) {
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        this.codec = codec;
+    }
+
+    @Override
+    public <S> Optional<Snapshot<S>> getSnapshot(UUID streamId, Class<S> type) {
+        var snapshots = jdbcTemplate.query("SELECT version, data " +
+                        "FROM snapshot " +
+                        "WHERE stream_id = :stream_id " +
+                        "  AND type = :type " +
+                        "  AND codec = :codec",
+                new MapSqlParameterSource()
+                        .addValue("stream_id", streamId)
+                        .addValue("type", type.getName())
+                        .addValue("codec", codec.getId()),
+                (rs, rowNum) -> new Snapshot<>(rs.getInt("version"), rs.getBytes("data")));
+        if (snapshots.isEmpty()) {
+            return Optional.empty();
+        }
+        var snapshot = snapshots.get(0);
+        try {
+            return Optional.of(new Snapshot<>(snapshot.version, codec.deserialize(snapshot.state, type)));
+        } catch (RuntimeException e) {
+            // the snapshot's class has probably changed; it will be replaced by the next snapshot
+            log.warn("Ignoring unreadable snapshot of stream {} version {}", streamId, snapshot.version, e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void saveSnapshot(UUID streamId, Snapshot<?> snapshot) {
+        jdbcTemplate.update("INSERT INTO snapshot (stream_id, version, type, codec, data) " +
+                        "VALUES (:stream_id, :version, :type, :codec :: INT2, :data) " +
+                        "ON CONFLICT (stream_id) DO UPDATE " +
+                        "SET version = excluded.version, " +
+                        "    type = excluded.type, " +
+                        "    codec = excluded.codec, " +
+                        "    data = excluded.data " +
+                        "WHERE snapshot.version <= excluded.version",
+                new MapSqlParameterSource()
+                        .addValue("stream_id", streamId)
+                        .addValue("version", snapshot.version)
+                        .addValue("type", snapshot.state.getClass().getName())
+                        .addValue("codec", codec.getId())
+                        .addValue("data", codec.serialize(snapshot.state)));
+    }
+
+    @Override
+    public <S> Optional<ProjectionSnapshot<S>> getProjectionSnapshot(String projectionName, Class<S> type) {
+        var snapshots = jdbcTemplate.query("SELECT position, data " +
+                        "FROM projection_snapshot " +
+                        "WHERE projection = :projection " +
+                        "  AND type = :type " +
+                        "  AND codec = :codec",
+                new MapSqlParameterSource()
+                        .addValue("projection", projectionName)
+                        .addValue("type", type.getName())
+                        .addValue("codec", codec.getId()),
+                (rs, rowNum) -> new ProjectionSnapshot<>(rs.getLong("position"), rs.getBytes("data")));
+        if (snapshots.isEmpty()) {
+            return Optional.empty();
+        }
+        var snapshot = snapshots.get(0);
+        try {
+            return Optional.of(new ProjectionSnapshot<>(snapshot.position, codec.deserialize(snapshot.state, type)));
+        } catch (RuntimeException e) {
+            // the snapshot's class has probably changed; it will be replaced by the next snapshot
+            log.warn("Ignoring unreadable snapshot of projection {} position {}", projectionName, snapshot.position, e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void saveProjectionSnapshot(String projectionName, ProjectionSnapshot<?> snapshot) {
+        jdbcTemplate.update("INSERT INTO projection_snapshot (projection, position, type, codec, data) " +
+                        "VALUES (:projection, :position, :type, :codec :: INT2, :data) " +
+                        "ON CONFLICT (projection) DO UPDATE " +
+                        "SET position = excluded.position, " +
+                        "    type = excluded.type, " +
+                        "    codec = excluded.codec, " +
+                        "    data = excluded.data " +
+                        "WHERE projection_snapshot.position <= excluded.position",
+                new MapSqlParameterSource()
+                        .addValue("projection", projectionName)
+                        .addValue("position", snapshot.position)
+                        .addValue("type", snapshot.state.getClass().getName())
+                        .addValue("codec", codec.getId())
+                        .addValue("data", codec.serialize(snapshot.state)));
+    }
+}
@@ -0,0 +1,18 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.snapshots;
+
+import fi.luontola.cqrshotel.framework.util.Struct;
+
+public class Snapshot<S> extends Struct {
+
+    public final int version;
+    public final S state;
+
+    public Snapshot(int version, S state) {
+        this.version = version;
+        this.state = state;
+    }
+}
@@ -0,0 +1,35 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.snapshots;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Stores the latest snapshot of each stream and of each projection. Snapshots are only
+ * an optimization, so they may be lost at any time without affecting correctness.
+ */
+public interface SnapshotStore {
+
+    /**
+     * Returns nothing if there is no snapshot of the requested type.
+     */
+    <S> Optional<Snapshot<S>> getSnapshot(UUID streamId, Class<S> type);
+
+    /**
+     * Replaces the stream's previous snapshot, unless it's of a newer version.
+     */
+    void saveSnapshot(UUID streamId, Snapshot<?> snapshot);
+
+    /**
+     * Returns nothing if there is no snapshot of the requested type.
+     */
+    <S> Optional<ProjectionSnapshot<S>> getProjectionSnapshot(String projectionName, Class<S> type);
+
+    /**
+     * Replaces the projection's previous snapshot, unless it's of a newer position.
+     */
+    void saveProjectionSnapshot(String projectionName, ProjectionSnapshot<?> snapshot);
+}
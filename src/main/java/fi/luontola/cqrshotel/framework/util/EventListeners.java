@@ -6,17 +6,32 @@ package fi.luontola.cqrshotel.framework.util;
 
 import fi.luontola.cqrshotel.framework.Event;
 
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 
+/**
+ * Calls the {@link EventListener} methods of an object. The listeners are called through
+ * classes generated with {@link LambdaMetafactory}, which the JIT can inline like normal
+ * method calls, instead of reflection, which would box the arguments for every event.
+ */
 public class EventListeners {
 
-    private static final Map<Class<?>, Map<Class<?>, Method>> eventListenersCache = new ConcurrentHashMap<>();
-    private final Map<Class<?>, Method> eventListeners;
+    private static final ClassValue<Map<Class<?>, Listener>> eventListenersCache = new ClassValue<>() {
+        @Override
+        protected Map<Class<?>, Listener> computeValue(Class<?> targetType) {
+            return findEventListeners(targetType);
+        }
+    };
+    private final Map<Class<?>, Listener> eventListeners;
     private final Object target;
 
     public static EventListeners of(Object target, Requirements... requirements) {
@@ -24,13 +39,17 @@ public class EventListeners {
     }
 
     private EventListeners(Object target, Requirements[] requirements) {
-        // XXX: requirements are checked only when adding to cache, so subsequent calls with different requirements on the same type will bypass the checks
-        this.eventListeners = eventListenersCache.computeIfAbsent(target.getClass(), targetType -> findEventListeners(targetType, requirements));
+        this.eventListeners = eventListenersCache.get(target.getClass());
+        for (var listener : eventListeners.values()) {
+            for (var requirement : requirements) {
+                requirement.check(listener.method);
+            }
+        }
         this.target = target;
     }
 
-    private static Map<Class<?>, Method> findEventListeners(Class<?> targetType, Requirements[] requirements) {
-        Map<Class<?>, Method> eventListeners = new HashMap<>();
+    private static Map<Class<?>, Listener> findEventListeners(Class<?> targetType) {
+        Map<Class<?>, Listener> eventListeners = new HashMap<>();
         for (var method : targetType.getDeclaredMethods()) {
             if (method.isAnnotationPresent(EventListener.class)) {
                 if (method.getParameterCount() != 1) {
@@ -40,27 +59,57 @@ public class EventListeners {
                 if (!Event.class.isAssignableFrom(eventType)) {
                     throw new IllegalArgumentException("expected method to take an event parameter: " + method);
                 }
-                for (var requirement : requirements) {
-                    requirement.check(method);
-                }
-                method.setAccessible(true);
-                eventListeners.put(eventType, method);
+                eventListeners.put(eventType, new Listener(method, createInvoker(targetType, method)));
             }
         }
         return Collections.unmodifiableMap(eventListeners);
     }
 
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object, Event> createInvoker(Class<?> targetType, Method method) {
+        try {
+            // private access is needed for calling private methods
+            var lookup = MethodHandles.privateLookupIn(targetType, MethodHandles.lookup());
+            var implementation = lookup.unreflect(method);
+            var callSite = LambdaMetafactory.metafactory(lookup,
+                    "accept",
+                    MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    implementation,
+                    MethodType.methodType(void.class, targetType, method.getParameterTypes()[0]));
+            return (BiConsumer<Object, Event>) callSite.getTarget().invoke();
+        } catch (Throwable t) {
+            throw new RuntimeException("failed to create an invoker for event listener: " + method, t);
+        }
+    }
+
+    public Set<Class<? extends Event>> getEventTypes() {
+        return eventListeners.keySet().stream()
+                .map(eventType -> eventType.asSubclass(Event.class))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
     public void send(Event event) {
-        var method = eventListeners.get(event.getClass());
-        if (method != null) {
+        var listener = eventListeners.get(event.getClass());
+        if (listener != null) {
             try {
-                method.invoke(target, event);
-            } catch (ReflectiveOperationException e) {
+                listener.invoker.accept(target, event);
+            } catch (Exception e) {
                 throw new RuntimeException("event listener failed for event: " + event, e);
             }
         }
     }
 
+    private static class Listener {
+        final Method method;
+        final BiConsumer<Object, Event> invoker;
+
+        Listener(Method method, BiConsumer<Object, Event> invoker) {
+            this.method = method;
+            this.invoker = invoker;
+        }
+    }
+
     public enum Requirements {
 
         MUST_BE_PRIVATE {
@@ -5,6 +5,7 @@
 package fi.luontola.cqrshotel.reservation;
 
 import fi.luontola.cqrshotel.framework.AggregateRoot;
+import fi.luontola.cqrshotel.framework.Snapshottable;
 import fi.luontola.cqrshotel.framework.util.EventListener;
 import fi.luontola.cqrshotel.hotel.Hotel;
 import fi.luontola.cqrshotel.pricing.PricingEngine;
@@ -19,13 +20,14 @@ import java.time.Clock;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 import static fi.luontola.cqrshotel.reservation.Reservation.State.PROSPECTIVE;
 import static fi.luontola.cqrshotel.reservation.Reservation.State.RESERVED;
 
-public class Reservation extends AggregateRoot {
+public class Reservation extends AggregateRoot implements Snapshottable<ReservationSnapshot> {
 
     public static final Duration PRICE_VALIDITY_DURATION = Duration.ofMinutes(30);
 
@@ -50,6 +52,20 @@ public class Reservation extends AggregateRoot {
         lineItems++;
     }
 
+    @Override
+    public ReservationSnapshot takeSnapshot() {
+        return new ReservationSnapshot(state, List.copyOf(priceOffersByDate.values()), lineItems);
+    }
+
+    @Override
+    public void restoreSnapshot(ReservationSnapshot snapshot) {
+        state = snapshot.state;
+        for (var offer : snapshot.priceOffers) {
+            priceOffersByDate.put(offer.date, offer);
+        }
+        lineItems = snapshot.lineItems;
+    }
+
     public void searchForAccommodation(LocalDate arrival, LocalDate departure, PricingEngine pricing, Clock clock) {
         publish(new SearchedForAccommodation(getId(), arrival, departure));
         for (var date = arrival; date.isBefore(departure); date = date.plusDays(1)) {
@@ -0,0 +1,29 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.reservation;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import fi.luontola.cqrshotel.framework.util.Struct;
+import fi.luontola.cqrshotel.reservation.Reservation.State;
+import fi.luontola.cqrshotel.reservation.events.PriceOffered;
+
+import java.util.List;
+
+class ReservationSnapshot extends Struct {
+
+    public final State state;
+    public final List<PriceOffered> priceOffers;
+    public final int lineItems;
+
+    @JsonCreator
+    ReservationSnapshot(@JsonProperty("state") State state,
+                        @JsonProperty("priceOffers") List<PriceOffered> priceOffers,
+                        @JsonProperty("lineItems") int lineItems) {
+        this.state = state;
+        this.priceOffers = priceOffers;
+        this.lineItems = lineItems;
+    }
+}
@@ -1,4 +1,4 @@
-// Copyright © 2016-2018 Esko Luontola
+// Copyright © 2016-2019 Esko Luontola
 // This software is released under the Apache License 2.0.
 // The license text is at http://www.apache.org/licenses/LICENSE-2.0
 
@@ -6,7 +6,7 @@ package fi.luontola.cqrshotel.reservation.events;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.ShortLivedEvent;
 import fi.luontola.cqrshotel.framework.util.Struct;
 import org.javamoney.moneta.Money;
 
@@ -15,7 +15,7 @@ import java.time.Instant;
 import java.time.LocalDate;
 import java.util.UUID;
 
-public class PriceOffered extends Struct implements Event {
+public class PriceOffered extends Struct implements ShortLivedEvent {
 
     public final UUID reservationId;
     public final LocalDate date;
@@ -33,6 +33,11 @@ public class PriceOffered extends Struct implements Event {
         this.expires = expires;
     }
 
+    @Override
+    public Instant expires() {
+        return expires;
+    }
+
     public boolean isInRange(LocalDate arrival, LocalDate departure) {
         return (date.equals(arrival) || date.isAfter(arrival))
                 && date.isBefore(departure);
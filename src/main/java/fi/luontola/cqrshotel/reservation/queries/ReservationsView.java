@@ -4,6 +4,7 @@
 
 package fi.luontola.cqrshotel.reservation.queries;
 
+import fi.luontola.cqrshotel.framework.Snapshottable;
 import fi.luontola.cqrshotel.framework.projections.AnnotatedProjection;
 import fi.luontola.cqrshotel.framework.util.EventListener;
 import fi.luontola.cqrshotel.reservation.events.ContactInformationUpdated;
@@ -16,13 +17,34 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
 
-public class ReservationsView extends AnnotatedProjection {
+public class ReservationsView extends AnnotatedProjection implements Snapshottable<ReservationsViewSnapshot> {
 
     public static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("d.M.yyyy HH:mm");
 
     private final ConcurrentMap<UUID, ReservationDto> reservationsById = new ConcurrentHashMap<>();
 
+    @Override
+    public boolean isPartitionedByStream() {
+        // each reservation is updated only by the events of its own stream
+        return true;
+    }
+
+    @Override
+    public ReservationsViewSnapshot takeSnapshot() {
+        return new ReservationsViewSnapshot(reservationsById.values().stream()
+                .map(ReservationsView::copy)
+                .collect(Collectors.toUnmodifiableList()));
+    }
+
+    @Override
+    public void restoreSnapshot(ReservationsViewSnapshot snapshot) {
+        for (var reservation : snapshot.reservations) {
+            reservationsById.put(reservation.reservationId, copy(reservation));
+        }
+    }
+
     @EventListener
     public void apply(ReservationCreated event) {
         var reservation = getReservation(event.reservationId);
@@ -66,4 +88,19 @@ public class ReservationsView extends AnnotatedProjection {
             return r;
         });
     }
+
+    private static ReservationDto copy(ReservationDto src) {
+        var r = new ReservationDto();
+        r.reservationId = src.reservationId;
+        r.arrival = src.arrival;
+        r.departure = src.departure;
+        r.checkInTime = src.checkInTime;
+        r.checkOutTime = src.checkOutTime;
+        r.name = src.name;
+        r.email = src.email;
+        r.status = src.status;
+        r.roomId = src.roomId;
+        r.roomNumber = src.roomNumber;
+        return r;
+    }
 }
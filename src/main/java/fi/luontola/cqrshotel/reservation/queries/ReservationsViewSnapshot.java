@@ -0,0 +1,21 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.reservation.queries;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import fi.luontola.cqrshotel.framework.util.Struct;
+
+import java.util.List;
+
+class ReservationsViewSnapshot extends Struct {
+
+    public final List<ReservationDto> reservations;
+
+    @JsonCreator
+    ReservationsViewSnapshot(@JsonProperty("reservations") List<ReservationDto> reservations) {
+        this.reservations = reservations;
+    }
+}
@@ -32,7 +32,7 @@ public class SearchForAccommodationQueryHandler implements Handler<SearchForAcco
 
     private void applyEventsFromStream(UUID streamId, Projection projection) {
         for (var event : eventStore.getEventsForStream(streamId, EventStore.BEGINNING)) {
-            projection.apply(event.event);
+            projection.apply(event.getEvent());
         }
     }
 }
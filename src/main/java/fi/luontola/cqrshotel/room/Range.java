@@ -1,9 +1,11 @@
-// Copyright © 2016-2018 Esko Luontola
+// Copyright © 2016-2019 Esko Luontola
 // This software is released under the Apache License 2.0.
 // The license text is at http://www.apache.org/licenses/LICENSE-2.0
 
 package fi.luontola.cqrshotel.room;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import fi.luontola.cqrshotel.framework.util.Struct;
 
 import java.time.Instant;
@@ -13,7 +15,9 @@ public class Range extends Struct {
     public final Instant start;
     public final Instant end;
 
-    public Range(Instant start, Instant end) {
+    @JsonCreator
+    public Range(@JsonProperty("start") Instant start,
+                 @JsonProperty("end") Instant end) {
         if (!start.isBefore(end)) {
             throw new IllegalArgumentException("start must be before end, but was: start " + start + ", end " + end);
         }
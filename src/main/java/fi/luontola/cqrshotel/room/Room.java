@@ -1,10 +1,11 @@
-// Copyright © 2016-2018 Esko Luontola
+// Copyright © 2016-2019 Esko Luontola
 // This software is released under the Apache License 2.0.
 // The license text is at http://www.apache.org/licenses/LICENSE-2.0
 
 package fi.luontola.cqrshotel.room;
 
 import fi.luontola.cqrshotel.framework.AggregateRoot;
+import fi.luontola.cqrshotel.framework.Snapshottable;
 import fi.luontola.cqrshotel.framework.util.EventListener;
 import fi.luontola.cqrshotel.room.events.RoomCreated;
 import fi.luontola.cqrshotel.room.events.RoomOccupied;
@@ -13,7 +14,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
-public class Room extends AggregateRoot {
+public class Room extends AggregateRoot implements Snapshottable<RoomSnapshot> {
 
     private final List<Range> occupiedRanges = new ArrayList<>();
 
@@ -22,6 +23,16 @@ public class Room extends AggregateRoot {
         occupiedRanges.add(new Range(event.start, event.end));
     }
 
+    @Override
+    public RoomSnapshot takeSnapshot() {
+        return new RoomSnapshot(List.copyOf(occupiedRanges));
+    }
+
+    @Override
+    public void restoreSnapshot(RoomSnapshot snapshot) {
+        occupiedRanges.addAll(snapshot.occupiedRanges);
+    }
+
     public void createRoom(String number) {
         publish(new RoomCreated(getId(), number));
     }
@@ -4,6 +4,7 @@
 
 package fi.luontola.cqrshotel.room.queries;
 
+import fi.luontola.cqrshotel.framework.Snapshottable;
 import fi.luontola.cqrshotel.framework.projections.AnnotatedProjection;
 import fi.luontola.cqrshotel.framework.util.EventListener;
 import fi.luontola.cqrshotel.room.events.RoomCreated;
@@ -11,16 +12,36 @@ import fi.luontola.cqrshotel.room.events.RoomOccupied;
 
 import java.time.Instant;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
-public class RoomAvailabilityView extends AnnotatedProjection {
+public class RoomAvailabilityView extends AnnotatedProjection implements Snapshottable<RoomAvailabilityViewSnapshot> {
 
-    private final Map<UUID, RoomAvailabilityDto> roomsById = new HashMap<>();
+    private final ConcurrentMap<UUID, RoomAvailabilityDto> roomsById = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isPartitionedByStream() {
+        // each room is updated only by the events of its own stream
+        return true;
+    }
+
+    @Override
+    public RoomAvailabilityViewSnapshot takeSnapshot() {
+        return new RoomAvailabilityViewSnapshot(roomsById.values().stream()
+                .map(RoomAvailabilityView::copy)
+                .collect(Collectors.toUnmodifiableList()));
+    }
+
+    @Override
+    public void restoreSnapshot(RoomAvailabilityViewSnapshot snapshot) {
+        for (var room : snapshot.rooms) {
+            roomsById.put(room.roomId, copy(room));
+        }
+    }
 
     @EventListener
     public void apply(RoomCreated event) {
@@ -49,6 +70,14 @@ public class RoomAvailabilityView extends AnnotatedProjection {
 
     // helpers
 
+    private static RoomAvailabilityDto copy(RoomAvailabilityDto src) {
+        var room = new RoomAvailabilityDto();
+        room.roomId = src.roomId;
+        room.roomNumber = src.roomNumber;
+        room.details = new LinkedList<>(src.details); // the intervals are immutable
+        return room;
+    }
+
     private static RoomAvailabilityDto copyForResponse(RoomAvailabilityDto src, Instant start, Instant end) {
         var response = new RoomAvailabilityDto();
         response.roomId = src.roomId;
@@ -0,0 +1,21 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.room.queries;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import fi.luontola.cqrshotel.framework.util.Struct;
+
+import java.util.List;
+
+class RoomAvailabilityViewSnapshot extends Struct {
+
+    public final List<RoomAvailabilityDto> rooms;
+
+    @JsonCreator
+    RoomAvailabilityViewSnapshot(@JsonProperty("rooms") List<RoomAvailabilityDto> rooms) {
+        this.rooms = rooms;
+    }
+}
@@ -4,6 +4,7 @@
 
 package fi.luontola.cqrshotel.room.queries;
 
+import fi.luontola.cqrshotel.framework.Snapshottable;
 import fi.luontola.cqrshotel.framework.projections.AnnotatedProjection;
 import fi.luontola.cqrshotel.framework.util.EventListener;
 import fi.luontola.cqrshotel.room.events.RoomCreated;
@@ -14,10 +15,23 @@ import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
-public class RoomsView extends AnnotatedProjection {
+public class RoomsView extends AnnotatedProjection implements Snapshottable<RoomsViewSnapshot> {
 
     private final ConcurrentMap<UUID, RoomDto> roomsById = new ConcurrentHashMap<>();
 
+    @Override
+    public RoomsViewSnapshot takeSnapshot() {
+        // the rooms are not modified after they are created
+        return new RoomsViewSnapshot(List.copyOf(roomsById.values()));
+    }
+
+    @Override
+    public void restoreSnapshot(RoomsViewSnapshot snapshot) {
+        for (var room : snapshot.rooms) {
+            roomsById.put(room.roomId, room);
+        }
+    }
+
     @EventListener
     public void apply(RoomCreated event) {
         var room = new RoomDto();
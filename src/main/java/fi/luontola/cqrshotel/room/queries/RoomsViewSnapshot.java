@@ -0,0 +1,21 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.room.queries;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import fi.luontola.cqrshotel.framework.util.Struct;
+
+import java.util.List;
+
+class RoomsViewSnapshot extends Struct {
+
+    public final List<RoomDto> rooms;
+
+    @JsonCreator
+    RoomsViewSnapshot(@JsonProperty("rooms") List<RoomDto> rooms) {
+        this.rooms = rooms;
+    }
+}
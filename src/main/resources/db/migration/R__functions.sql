@@ -1,20 +1,39 @@
 DROP FUNCTION IF EXISTS save_events( UUID, INT4, JSONB [], JSONB [] );
+DROP FUNCTION IF EXISTS save_events( UUID, INT4, INT2, BYTEA [], BYTEA [] );
+DROP FUNCTION IF EXISTS save_events( UUID, INT4, INT2, BYTEA [], BYTEA [], TEXT [] );
+DROP FUNCTION IF EXISTS save_events( UUID, INT4, INT2, BYTEA [], BYTEA [], TEXT [], TIMESTAMPTZ [] );
+DROP FUNCTION IF EXISTS save_events_unsequenced( UUID, INT4, JSONB [], JSONB [] );
+DROP FUNCTION IF EXISTS save_events_unsequenced( UUID, INT4, INT2, BYTEA [], BYTEA [] );
+DROP FUNCTION IF EXISTS save_events_unsequenced( UUID, INT4, INT2, BYTEA [], BYTEA [], TEXT [] );
+DROP FUNCTION IF EXISTS save_events_unsequenced( UUID, INT4, INT2, BYTEA [], BYTEA [], TEXT [], TIMESTAMPTZ [] );
+DROP FUNCTION IF EXISTS sequence_events( UUID, INT4 );
+DROP FUNCTION IF EXISTS sequence_events();
+DROP FUNCTION IF EXISTS append_events( UUID, INT4, JSONB [], JSONB [] );
+DROP FUNCTION IF EXISTS append_events( UUID, INT4, INT8, JSONB [], JSONB [] );
+DROP FUNCTION IF EXISTS append_events( UUID, INT4, INT8, INT2, BYTEA [], BYTEA [] );
+DROP FUNCTION IF EXISTS append_events( UUID, INT4, INT8, INT2, BYTEA [], BYTEA [], TEXT [] );
+DROP FUNCTION IF EXISTS append_events( UUID, INT4, INT8, INT2, BYTEA [], BYTEA [], TEXT [], TIMESTAMPTZ [] );
+DROP FUNCTION IF EXISTS save_events_batch( UUID [], INT4 [], INT4 [], INT2, BYTEA [], BYTEA [] );
+DROP FUNCTION IF EXISTS save_events_batch( UUID [], INT4 [], INT4 [], INT2, BYTEA [], BYTEA [], TEXT [] );
+DROP FUNCTION IF EXISTS save_events_batch( UUID [], INT4 [], INT4 [], INT2, BYTEA [], BYTEA [], TEXT [], TIMESTAMPTZ [] );
+DROP FUNCTION IF EXISTS save_events_atomic( UUID [], INT4 [], INT4 [], INT2, BYTEA [], BYTEA [] );
+DROP FUNCTION IF EXISTS save_events_atomic( UUID [], INT4 [], INT4 [], INT2, BYTEA [], BYTEA [], TEXT [] );
+DROP FUNCTION IF EXISTS save_events_atomic( UUID [], INT4 [], INT4 [], INT2, BYTEA [], BYTEA [], TEXT [], TIMESTAMPTZ [] );
+DROP FUNCTION IF EXISTS lock_stream( UUID, INT4 );
+DROP FUNCTION IF EXISTS lock_stream_version( UUID );
+DROP FUNCTION IF EXISTS notify_events( INT8 );
+DROP FUNCTION IF EXISTS archive_events( INT8, INT8 );
+DROP FUNCTION IF EXISTS delete_expired_events( TIMESTAMPTZ );
 
-CREATE FUNCTION save_events(_stream_id        UUID,
-                            _expected_version INT4,
-                            _events_data      JSONB [],
-                            _events_metadata  JSONB [])
-  RETURNS INT8 AS $$
+-- Locks a stream for the rest of the transaction and returns its current version.
+-- Creates the stream if it doesn't exist.
+
+CREATE FUNCTION lock_stream_version(_stream_id UUID)
+  RETURNS INT4 AS $$
 DECLARE
-  _base_version  INT4;
-  _version       INT4;
-  _base_position INT8;
-  _position      INT8;
-  _event         RECORD;
+  _base_version INT4;
 BEGIN
 
-  -- check for concurrent modification of the stream
-
   LOOP
     SELECT version
     INTO _base_version
@@ -29,53 +48,377 @@ BEGIN
       VALUES (_stream_id, 0)
       ON CONFLICT DO NOTHING; -- conflict means that the stream was initialized in parallel
     ELSE
-      EXIT;
+      RETURN _base_version;
     END IF;
   END LOOP;
 
+END;
+$$ LANGUAGE plpgsql;
+
+-- Locks a stream for the rest of the transaction and checks that it's at the expected version.
+-- Creates the stream if it doesn't exist.
+
+CREATE FUNCTION lock_stream(_stream_id        UUID,
+                            _expected_version INT4)
+  RETURNS VOID AS $$
+DECLARE
+  _base_version INT4;
+BEGIN
+
+  _base_version := lock_stream_version(_stream_id);
+
   IF _base_version != _expected_version
   THEN
     RAISE EXCEPTION 'optimistic locking failure, current version is %', _base_version;
   END IF;
 
-  -- append events to the stream
+END;
+$$ LANGUAGE plpgsql;
 
-  _version := _base_version;
-  FOR _event IN SELECT *
-                FROM unnest(_events_data, _events_metadata) AS t(data, metadata)
-  LOOP
-    _version := _version + 1;
-    INSERT INTO event (stream_id, version, data, metadata)
-    VALUES (_stream_id, _version, _event.data, _event.metadata);
-  END LOOP;
+-- Appends events to a stream which the caller has locked with lock_stream().
+-- If the base position is NULL, the events are left pending for sequence_events().
+-- Returns the new version of the stream.
+
+CREATE FUNCTION append_events(_stream_id       UUID,
+                              _base_version    INT4,
+                              _base_position   INT8,
+                              _codec           INT2,
+                              _events_data     BYTEA [],
+                              _events_metadata BYTEA [],
+                              _events_types    TEXT [],
+                              _events_expires  TIMESTAMPTZ [])
+  RETURNS INT4 AS $$
+DECLARE
+  _version INT4;
+BEGIN
+
+  INSERT INTO event (stream_id, version, position, codec, data, metadata, type, expires)
+  SELECT _stream_id, _base_version + t.n, _base_position + t.n, _codec, t.data, t.metadata, t.type, t.expires
+  FROM unnest(_events_data, _events_metadata, _events_types, _events_expires)
+         WITH ORDINALITY AS t(data, metadata, type, expires, n);
+
+  _version := _base_version + coalesce(array_length(_events_data, 1), 0);
 
   UPDATE stream
   SET version = _version
   WHERE stream_id = _stream_id;
 
+  RETURN _version;
+
+END;
+$$ LANGUAGE plpgsql;
+
+-- Tells the listeners of the event_store channel that the global log has grown up to the given position.
+-- PostgreSQL delivers the notification only when the transaction commits.
+
+CREATE FUNCTION notify_events(_position INT8)
+  RETURNS VOID AS $$
+BEGIN
+
+  PERFORM pg_notify('event_store', _position :: TEXT);
+
+END;
+$$ LANGUAGE plpgsql;
+
+-- Appends events to a stream and sets their global order in the same transaction.
+-- Only one transaction at a time can do this, so all writers are serialized.
+-- Returns the global position of the last saved event.
+
+CREATE FUNCTION save_events(_stream_id        UUID,
+                            _expected_version INT4,
+                            _codec            INT2,
+                            _events_data      BYTEA [],
+                            _events_metadata  BYTEA [],
+                            _events_types     TEXT [],
+                            _events_expires   TIMESTAMPTZ [])
+  RETURNS INT8 AS $$
+DECLARE
+  _count    INT4;
+  _position INT8;
+BEGIN
+
+  PERFORM lock_stream(_stream_id, _expected_version);
+
   -- set the global order of events
 
-  LOCK TABLE event_sequence IN EXCLUSIVE MODE; -- allow only reads to proceed in parallel
+  _count := coalesce(array_length(_events_data, 1), 0);
+
+  UPDATE event_head
+  SET position = position + _count -- lock the head; allow only reads to proceed in parallel
+  RETURNING position
+    INTO _position;
+
+  PERFORM append_events(_stream_id, _expected_version, _position - _count, _codec, _events_data, _events_metadata,
+                        _events_types, _events_expires);
+
+  PERFORM notify_events(_position);
+
+  RETURN _position;
+
+END;
+$$ LANGUAGE plpgsql;
+
+-- Appends events to many streams in one transaction, for group commit. The events of each stream
+-- are a consecutive slice of the data, metadata, type and expires arrays, as many as its event count.
+-- A stream whose version doesn't match is skipped, without affecting the other streams.
+-- Returns for each stream, in the same order, its new version and the global position of its
+-- last event, or on optimistic locking failure its current version and NULL.
+
+CREATE FUNCTION save_events_batch(_stream_ids        UUID [],
+                                  _expected_versions INT4 [],
+                                  _event_counts      INT4 [],
+                                  _codec             INT2,
+                                  _events_data       BYTEA [],
+                                  _events_metadata   BYTEA [],
+                                  _events_types      TEXT [],
+                                  _events_expires    TIMESTAMPTZ [])
+  RETURNS TABLE(result_version INT4, result_position INT8) AS $$
+DECLARE
+  _count         INT4;
+  _current       INT4 [];
+  _idx           INT4;
+  _offset        INT4 := 0;
+  _base_position INT8;
+  _position      INT8;
+  _stream_count  INT4;
+BEGIN
+
+  _stream_count := coalesce(array_length(_stream_ids, 1), 0);
+  _current := array_fill(0, ARRAY [_stream_count]);
+
+  -- lock the streams in a consistent order, to avoid deadlocks with concurrent batches
+  FOR _idx IN SELECT t.idx
+              FROM unnest(_stream_ids) WITH ORDINALITY AS t(sid, idx)
+              ORDER BY t.sid
+  LOOP
+    _current[_idx] := lock_stream_version(_stream_ids[_idx]);
+  END LOOP;
+
+  -- set the global order of events
 
   SELECT position
   INTO _base_position
-  FROM event_sequence
-  ORDER BY position DESC
-  LIMIT 1;
+  FROM event_head
+  FOR UPDATE; -- lock the head; allow only reads to proceed in parallel
+  _position := _base_position;
+
+  FOR _idx IN 1 .. _stream_count LOOP
+    _count := _event_counts[_idx];
+    IF _current[_idx] = _expected_versions[_idx]
+    THEN
+      PERFORM append_events(_stream_ids[_idx], _expected_versions[_idx], _position, _codec,
+                            _events_data[_offset + 1 : _offset + _count],
+                            _events_metadata[_offset + 1 : _offset + _count],
+                            _events_types[_offset + 1 : _offset + _count],
+                            _events_expires[_offset + 1 : _offset + _count]);
+      _position := _position + _count;
+      result_version := _expected_versions[_idx] + _count;
+      result_position := _position;
+    ELSE
+      result_version := _current[_idx];
+      result_position := NULL;
+    END IF;
+    _offset := _offset + _count;
+    RETURN NEXT;
+  END LOOP;
 
-  IF _base_position IS NULL
+  -- nothing to announce if every save of the batch had a version conflict
+  IF _position > _base_position
   THEN
-    _base_position := 0;
+    UPDATE event_head
+    SET position = _position;
+
+    PERFORM notify_events(_position);
   END IF;
 
-  _position := _base_position;
-  FOR v IN _base_version + 1 .. _version LOOP
-    _position := _position + 1;
-    INSERT INTO event_sequence (position, stream_id, version)
-    VALUES (_position, _stream_id, v);
+END;
+$$ LANGUAGE plpgsql;
+
+-- Appends events to many streams in one transaction, so that either all or none of them are saved.
+-- The events of each stream are a consecutive slice of the data, metadata, type and expires arrays, as many as its event count.
+-- Returns the global position of the last saved event.
+
+CREATE FUNCTION save_events_atomic(_stream_ids        UUID [],
+                                   _expected_versions INT4 [],
+                                   _event_counts      INT4 [],
+                                   _codec             INT2,
+                                   _events_data       BYTEA [],
+                                   _events_metadata   BYTEA [],
+                                   _events_types      TEXT [],
+                                   _events_expires    TIMESTAMPTZ [])
+  RETURNS INT8 AS $$
+DECLARE
+  _count         INT4;
+  _current       INT4;
+  _idx           INT4;
+  _offset        INT4 := 0;
+  _position      INT8;
+BEGIN
+
+  -- lock the streams in a consistent order, to avoid deadlocks with concurrent multi-stream saves
+  FOR _idx IN SELECT t.idx
+              FROM unnest(_stream_ids) WITH ORDINALITY AS t(sid, idx)
+              ORDER BY t.sid
+  LOOP
+    _current := lock_stream_version(_stream_ids[_idx]);
+    IF _current != _expected_versions[_idx]
+    THEN
+      RAISE EXCEPTION 'optimistic locking failure in stream %, current version is %', _stream_ids[_idx], _current;
+    END IF;
+  END LOOP;
+
+  -- set the global order of events
+
+  SELECT position
+  INTO _position
+  FROM event_head
+  FOR UPDATE; -- lock the head; allow only reads to proceed in parallel
+
+  FOR _idx IN 1 .. coalesce(array_length(_stream_ids, 1), 0) LOOP
+    _count := _event_counts[_idx];
+    PERFORM append_events(_stream_ids[_idx], _expected_versions[_idx], _position, _codec,
+                          _events_data[_offset + 1 : _offset + _count],
+                          _events_metadata[_offset + 1 : _offset + _count],
+                          _events_types[_offset + 1 : _offset + _count],
+                          _events_expires[_offset + 1 : _offset + _count]);
+    _position := _position + _count;
+    _offset := _offset + _count;
   END LOOP;
 
+  UPDATE event_head
+  SET position = _position;
+
+  PERFORM notify_events(_position);
+
   RETURN _position;
 
 END;
 $$ LANGUAGE plpgsql;
+
+-- Appends events to a stream without taking any global locks. The events will not
+-- be visible in the global order until sequence_events() is called after the commit.
+-- Returns the new version of the stream.
+
+CREATE FUNCTION save_events_unsequenced(_stream_id        UUID,
+                                        _expected_version INT4,
+                                        _codec            INT2,
+                                        _events_data      BYTEA [],
+                                        _events_metadata  BYTEA [],
+                                        _events_types     TEXT [],
+                                        _events_expires   TIMESTAMPTZ [])
+  RETURNS INT4 AS $$
+BEGIN
+
+  PERFORM lock_stream(_stream_id, _expected_version);
+
+  RETURN append_events(_stream_id, _expected_version, NULL, _codec, _events_data, _events_metadata, _events_types,
+                       _events_expires);
+
+END;
+$$ LANGUAGE plpgsql;
+
+-- Sets the global order of all committed events which are pending for it.
+-- Readers never see positions out of order, because only one sequencer runs at a time
+-- and a pending event is visible to it only after its transaction has committed.
+-- Returns the first and last sequenced version of every stream and the position of
+-- the last one. The events of a stream get consecutive positions.
+
+CREATE FUNCTION sequence_events()
+  RETURNS TABLE(result_stream_id UUID, result_first_version INT4, result_last_version INT4, result_position INT8) AS $$
+DECLARE
+  _base_position INT8;
+  _head          INT8;
+BEGIN
+
+  SELECT position
+  INTO _base_position
+  FROM event_head
+  FOR UPDATE; -- lock the head; allow only reads to proceed in parallel
+
+  -- keep the events of a stream in version order and the events of a commit next to each other
+  RETURN QUERY
+  WITH sequenced AS (
+    UPDATE event e
+    SET position = _base_position + p.n
+    FROM (SELECT stream_id, version, row_number() OVER (ORDER BY stream_id, version) AS n
+          FROM event
+          WHERE position IS NULL) p
+    WHERE e.stream_id = p.stream_id
+      AND e.version = p.version
+    RETURNING e.stream_id, e.version, e.position
+  )
+  SELECT s.stream_id, min(s.version), max(s.version), max(s.position)
+  FROM sequenced s
+  GROUP BY s.stream_id;
+
+  SELECT max(position)
+  INTO _head
+  FROM event
+  WHERE position > _base_position;
+
+  IF _head IS NOT NULL
+  THEN
+    UPDATE event_head
+    SET position = _head;
+
+    PERFORM notify_events(_head);
+  END IF;
+
+END;
+$$ LANGUAGE plpgsql;
+
+-- Moves the events, whose position is after the first and at most the second argument,
+-- from the event table to event_archive. Readers see the events in either of them,
+-- because the move happens in one statement.
+-- Returns the number of events which were moved.
+
+CREATE FUNCTION archive_events(_since_position INT8,
+                               _until_position INT8)
+  RETURNS INT8 AS $$
+DECLARE
+  _count INT8;
+BEGIN
+
+  WITH archived AS (
+    DELETE FROM event
+    WHERE position > _since_position
+      AND position <= _until_position
+    RETURNING stream_id, version, position, codec, type, data, metadata, expires
+  )
+  INSERT INTO event_archive (stream_id, version, position, codec, type, data, metadata, expires)
+  SELECT stream_id, version, position, codec, type, data, metadata, expires
+  FROM archived;
+
+  GET DIAGNOSTICS _count = ROW_COUNT;
+  RETURN _count;
+
+END;
+$$ LANGUAGE plpgsql;
+
+-- Deletes the short-lived events which have expired before the given time, from both the hot
+-- and the archived events. The streams are left with gaps in their versions. The last event
+-- of a stream is never deleted, because the version of the stream is read from it.
+-- Returns the number of events which were deleted.
+
+CREATE FUNCTION delete_expired_events(_now TIMESTAMPTZ)
+  RETURNS INT8 AS $$
+DECLARE
+  _hot  INT8;
+  _cold INT8;
+BEGIN
+
+  DELETE FROM event
+  WHERE expires < _now
+    AND position IS NOT NULL -- let the sequencer see all pending events
+    AND version < (SELECT s.version FROM stream s WHERE s.stream_id = event.stream_id);
+  GET DIAGNOSTICS _hot = ROW_COUNT;
+
+  DELETE FROM event_archive
+  WHERE expires < _now
+    AND version < (SELECT s.version FROM stream s WHERE s.stream_id = event_archive.stream_id);
+  GET DIAGNOSTICS _cold = ROW_COUNT;
+
+  RETURN _hot + _cold;
+
+END;
+$$ LANGUAGE plpgsql;
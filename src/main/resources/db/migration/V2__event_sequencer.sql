@@ -0,0 +1,14 @@
+-- Events which have been committed to their stream, but not yet assigned a global position.
+-- See sequence_events() in R__functions.sql
+
+CREATE TABLE event_pending (
+  stream_id UUID NOT NULL,
+  version   INT4 NOT NULL,
+  PRIMARY KEY (stream_id, version),
+  FOREIGN KEY (stream_id, version) REFERENCES event (stream_id, version)
+);
+
+-- the sequencer looks up the position of a stream version
+
+CREATE UNIQUE INDEX event_sequence_stream_idx
+  ON event_sequence USING BTREE (stream_id, version);
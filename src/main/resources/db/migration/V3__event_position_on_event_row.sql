@@ -0,0 +1,36 @@
+-- Store the global position on the event row, so that reading a stream or the global log
+-- doesn't need to join event with event_sequence, and drop the index which duplicated
+-- the whole event payload.
+
+ALTER TABLE event
+  ADD COLUMN position INT8;
+
+UPDATE event e
+SET position = s.position
+FROM event_sequence s
+WHERE s.stream_id = e.stream_id
+  AND s.version = e.version;
+
+-- events which are pending to be sequenced don't yet have a position
+
+CREATE UNIQUE INDEX event_position_idx
+  ON event USING BTREE (position);
+
+CREATE INDEX event_pending_idx
+  ON event USING BTREE (stream_id, version)
+  WHERE position IS NULL;
+
+DROP INDEX event_idx;
+DROP TABLE event_pending;
+DROP TABLE event_sequence;
+
+-- The last assigned global position. It's a single row, which writers lock
+-- while assigning positions, instead of locking a whole table.
+
+CREATE TABLE event_head (
+  position INT8 NOT NULL
+);
+
+INSERT INTO event_head (position)
+SELECT coalesce(max(position), 0)
+FROM event;
@@ -0,0 +1,10 @@
+-- Store the event payloads as bytes, so that they can be in a more compact format than JSON.
+-- The codec column tells the format of both data and metadata: 1 = JSON, 2 = Smile
+
+ALTER TABLE event
+  ALTER COLUMN data TYPE BYTEA USING convert_to(data :: TEXT, 'UTF8'),
+  ALTER COLUMN metadata TYPE BYTEA USING convert_to(metadata :: TEXT, 'UTF8'),
+  ADD COLUMN codec INT2 NOT NULL DEFAULT 1;
+
+ALTER TABLE event
+  ALTER COLUMN codec DROP DEFAULT;
@@ -0,0 +1,11 @@
+-- The latest snapshot of an aggregate. Snapshots are only a cache, so they
+-- may be deleted at any time, and they don't reference the stream table.
+
+CREATE TABLE snapshot (
+  stream_id UUID  NOT NULL,
+  version   INT4  NOT NULL,
+  type      TEXT  NOT NULL,
+  codec     INT2  NOT NULL,
+  data      BYTEA NOT NULL,
+  PRIMARY KEY (stream_id)
+);
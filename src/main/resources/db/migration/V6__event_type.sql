@@ -0,0 +1,14 @@
+-- Store the event type next to the payload, so that a projection can read only
+-- the types of events it needs without deserializing the rest.
+-- The type is the same as in the metadata. It can be extracted only from JSON,
+-- so events saved in other formats before this migration have NULL type.
+
+ALTER TABLE event
+  ADD COLUMN type TEXT;
+
+UPDATE event
+SET type = convert_from(metadata, 'UTF8') :: JSONB ->> 'type'
+WHERE codec = 1;
+
+CREATE INDEX event_type_idx
+  ON event USING BTREE (type, position);
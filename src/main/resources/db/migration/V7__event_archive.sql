@@ -0,0 +1,36 @@
+-- Old events are moved from the event table to event_archive with archive_events(),
+-- so that the event table and its indexes stay small enough to remain in memory.
+-- The archived rows are compressed already when they are over 128 bytes, instead of
+-- the default of about 2 kB, and the compressed values are kept inline (storage MAIN).
+
+CREATE TABLE event_archive (
+  stream_id UUID  NOT NULL,
+  version   INT4  NOT NULL,
+  position  INT8  NOT NULL,
+  codec     INT2  NOT NULL,
+  type      TEXT,
+  data      BYTEA NOT NULL,
+  metadata  BYTEA NOT NULL,
+  PRIMARY KEY (stream_id, version),
+  FOREIGN KEY (stream_id) REFERENCES stream (stream_id)
+) WITH (toast_tuple_target = 128);
+
+ALTER TABLE event_archive
+  ALTER COLUMN data SET STORAGE MAIN,
+  ALTER COLUMN metadata SET STORAGE MAIN;
+
+CREATE UNIQUE INDEX event_archive_position_idx
+  ON event_archive USING BTREE (position);
+
+CREATE INDEX event_archive_type_idx
+  ON event_archive USING BTREE (type, position);
+
+-- Readers see both tiers through this view. PostgreSQL applies the conditions
+-- to both tables separately and merges their index scans in position order.
+
+CREATE VIEW all_event AS
+  SELECT stream_id, version, position, codec, type, data, metadata
+  FROM event_archive
+  UNION ALL
+  SELECT stream_id, version, position, codec, type, data, metadata
+  FROM event;
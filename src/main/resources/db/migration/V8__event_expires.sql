@@ -0,0 +1,24 @@
+-- Short-lived events, such as price offers, are only needed until they expire, after which
+-- delete_expired_events() removes them, so that the storage doesn't grow with the search traffic.
+-- The partial indexes cover only the short-lived events, so they cost nothing for the other events.
+
+ALTER TABLE event
+  ADD COLUMN expires TIMESTAMPTZ;
+
+ALTER TABLE event_archive
+  ADD COLUMN expires TIMESTAMPTZ;
+
+CREATE INDEX event_expires_idx
+  ON event USING BTREE (expires)
+  WHERE expires IS NOT NULL;
+
+CREATE INDEX event_archive_expires_idx
+  ON event_archive USING BTREE (expires)
+  WHERE expires IS NOT NULL;
+
+CREATE OR REPLACE VIEW all_event AS
+  SELECT stream_id, version, position, codec, type, data, metadata, expires
+  FROM event_archive
+  UNION ALL
+  SELECT stream_id, version, position, codec, type, data, metadata, expires
+  FROM event;
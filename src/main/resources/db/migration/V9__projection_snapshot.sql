@@ -0,0 +1,12 @@
+-- The latest snapshot of an in-memory projection, so that on startup only the
+-- events after it need to be replayed. Like the aggregate snapshots, these are
+-- only a cache and may be deleted at any time.
+
+CREATE TABLE projection_snapshot (
+  projection TEXT  NOT NULL,
+  position   INT8  NOT NULL,
+  type       TEXT  NOT NULL,
+  codec      INT2  NOT NULL,
+  data       BYTEA NOT NULL,
+  PRIMARY KEY (projection)
+);
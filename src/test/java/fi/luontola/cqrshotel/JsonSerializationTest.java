@@ -6,7 +6,11 @@ package fi.luontola.cqrshotel;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import fi.luontola.cqrshotel.framework.Event;
 import fi.luontola.cqrshotel.framework.Message;
+import fi.luontola.cqrshotel.framework.eventstore.EventCodec;
+import fi.luontola.cqrshotel.framework.eventstore.SmileEventCodec;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.javamoney.moneta.Money;
 import org.junit.jupiter.api.Tag;
@@ -57,7 +61,27 @@ public class JsonSerializationTest {
                 .forEach(type -> assertSerializable(type, objectMapper));
     }
 
-    private static boolean isTestDouble(Class<? extends Message> type) {
+    @Test
+    public void all_events_are_serializable_in_the_event_store_format() {
+        var codec = new SmileEventCodec(Application.configureObjectMapper(new ObjectMapper(new SmileFactory())));
+        new Reflections("fi.luontola.cqrshotel")
+                .getSubTypesOf(Event.class).stream()
+                .filter(type -> !type.isInterface())
+                .filter(type -> !isTestDouble(type))
+                .forEach(type -> assertSerializable(type, codec));
+    }
+
+    @Test
+    public void all_events_have_a_short_type_id() {
+        var eventTypes = new Application().eventTypes();
+        new Reflections("fi.luontola.cqrshotel")
+                .getSubTypesOf(Event.class).stream()
+                .filter(type -> !type.isInterface())
+                .filter(type -> !isTestDouble(type))
+                .forEach(type -> assertThat("registered: " + type, eventTypes.isRegistered(type), is(true)));
+    }
+
+    private static boolean isTestDouble(Class<?> type) {
         return type.isMemberClass() &&
                 Stream.of(type.getEnclosingClass().getMethods())
                         .anyMatch(method -> method.isAnnotationPresent(Test.class));
@@ -75,6 +99,18 @@ public class JsonSerializationTest {
         }
     }
 
+    private static void assertSerializable(Class<?> type, EventCodec codec) {
+        try {
+            var original = newDummy(type);
+            var bytes = codec.serialize(original);
+            var deserialized = codec.deserialize(bytes, type);
+            assertThat(deserialized, is(original));
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new AssertionError("Not serializable: " + type, e);
+        }
+    }
+
     private static Object newDummy(Class<?> type) throws Exception {
         var ctor = type.getConstructors()[0];
         var paramTypes = ctor.getParameterTypes();
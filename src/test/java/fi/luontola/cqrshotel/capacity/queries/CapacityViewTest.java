@@ -4,12 +4,17 @@
 
 package fi.luontola.cqrshotel.capacity.queries;
 
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.eventstore.PersistedEvent;
 import fi.luontola.cqrshotel.reservation.events.ReservationCreated;
 import fi.luontola.cqrshotel.room.events.RoomCreated;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -75,6 +80,43 @@ public class CapacityViewTest {
                 view.getCapacityByDate(date5).reserved, is(0));
     }
 
+    @Test
+    public void applying_a_batch_of_events_is_the_same_as_applying_them_one_by_one() {
+        List<Event> events = List.of(
+                new RoomCreated(UUID.randomUUID(), "101"),
+                new ReservationCreated(UUID.randomUUID(), date1, date3, null, null),
+                new RoomCreated(UUID.randomUUID(), "102"),
+                new ReservationCreated(UUID.randomUUID(), date2, date4, null, null));
+        var batch = new ArrayList<PersistedEvent>();
+        for (var event : events) {
+            batch.add(new PersistedEvent(Envelope.newMessage(event), UUID.randomUUID(), 1, batch.size() + 1));
+        }
+        var oneByOne = new CapacityView();
+        for (var event : batch) {
+            oneByOne.apply(event.getEvent());
+        }
+
+        var applied = view.applyBatch(batch);
+
+        assertThat("applied", applied, is(4));
+        assertThat(view.getCapacityByDateRange(date1, date5), is(oneByOne.getCapacityByDateRange(date1, date5)));
+        assertThat("capacity", view.getCapacityByDate(date1).capacity, is(2));
+        assertThat("reserved", view.getCapacityByDate(date2).reserved, is(2));
+    }
+
+    @Test
+    public void a_batch_stops_at_the_first_event_which_is_not_counted() {
+        var batch = List.of(
+                new PersistedEvent(Envelope.newMessage(new RoomCreated(UUID.randomUUID(), "101")), UUID.randomUUID(), 1, 1),
+                new PersistedEvent(Envelope.newMessage(new OtherEvent()), UUID.randomUUID(), 1, 2),
+                new PersistedEvent(Envelope.newMessage(new RoomCreated(UUID.randomUUID(), "102")), UUID.randomUUID(), 1, 3));
+
+        var applied = view.applyBatch(batch);
+
+        assertThat("applied", applied, is(1));
+        assertThat("capacity", view.getCapacityByDate(date1).capacity, is(1));
+    }
+
     @Test
     public void lists_capacity_by_date_range() {
         var results = view.getCapacityByDateRange(date1, date3);
@@ -85,4 +127,8 @@ public class CapacityViewTest {
         assertThat(capacity.capacity, is(notNullValue()));
         assertThat(capacity.reserved, is(notNullValue()));
     }
+
+
+    private static class OtherEvent implements Event {
+    }
 }
@@ -7,15 +7,24 @@ package fi.luontola.cqrshotel.framework;
 import fi.luontola.cqrshotel.framework.eventstore.EventStore;
 import fi.luontola.cqrshotel.framework.eventstore.InMemoryEventStore;
 import fi.luontola.cqrshotel.framework.eventstore.OptimisticLockingException;
+import fi.luontola.cqrshotel.framework.eventstore.PersistedEvent;
+import fi.luontola.cqrshotel.framework.snapshots.InMemorySnapshotStore;
+import fi.luontola.cqrshotel.framework.snapshots.Snapshot;
 import fi.luontola.cqrshotel.framework.util.EventListener;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @Tag("fast")
@@ -77,6 +86,30 @@ public class RepositoryTest {
         assertThat(entity.value, is("foo"));
     }
 
+    @Test
+    public void the_version_is_that_of_the_last_event_also_when_the_stream_has_gaps() {
+        var repo = new GuineaPigRepository(new InMemoryEventStore() {
+            @Override
+            public List<PersistedEvent> getEventsForStream(UUID streamId, int sinceVersion) {
+                // as if the second event had expired and been deleted
+                return super.getEventsForStream(streamId, sinceVersion).stream()
+                        .filter(event -> event.version != 2)
+                        .collect(Collectors.toList());
+            }
+        });
+        var entity = repo.create(id);
+        entity.setValue("v1");
+        entity.setValue("v2");
+        entity.setValue("v3");
+        repo.save(entity, EventStore.BEGINNING);
+
+        entity = repo.getById(id);
+        assertThat(entity.getVersion(), is(3));
+        assertThat(entity.value, is("v3"));
+        entity.setValue("v4");
+        repo.save(entity, 3); // doesn't throw OptimisticLockingException
+    }
+
     @Test
     public void save_returns_the_global_committed_position() {
         var commit1 = saveEvents(UUID.randomUUID(), "event1", "event2", "event3");
@@ -86,6 +119,116 @@ public class RepositoryTest {
         assertThat(commit2.committedPosition, is(5L));
     }
 
+    @Test
+    public void saves_a_snapshot_when_passing_the_snapshot_interval() {
+        var snapshots = new InMemorySnapshotStore();
+        var repo = new SnapshottableGuineaPigRepository(new InMemoryEventStore());
+        repo.enableSnapshots(snapshots, 3);
+
+        saveEvents(repo, id, "v1", "v2");
+        assertThat("before interval", snapshots.getSnapshot(id, String.class), is(Optional.empty()));
+
+        saveEvents(repo, id, "v3", "v4");
+        assertThat("after interval", snapshots.getSnapshot(id, String.class), is(Optional.of(new Snapshot<>(4, "v4"))));
+    }
+
+    @Test
+    public void loads_the_snapshot_and_the_events_after_it() {
+        var snapshots = new InMemorySnapshotStore();
+        var repo = new SnapshottableGuineaPigRepository(new InMemoryEventStore());
+        saveEvents(repo, id, "v1", "v2", "v3");
+        snapshots.saveSnapshot(id, new Snapshot<>(2, "from snapshot"));
+        repo.enableSnapshots(snapshots, 100);
+
+        var entity = repo.getById(id);
+        assertThat(entity.getVersion(), is(3));
+        assertThat(entity.value, is("v3"));
+        assertThat(entity.history, is(List.of("from snapshot", "v3")));
+    }
+
+    @Test
+    public void snapshots_can_be_enabled_only_for_snapshottable_aggregates() {
+        var e = assertThrows(IllegalArgumentException.class, () -> {
+            repo.enableSnapshots(new InMemorySnapshotStore(), 100);
+        });
+        assertThat(e.getMessage(), containsString("Not snapshottable"));
+    }
+
+    @Test
+    public void cached_aggregate_is_reused_after_save() {
+        repo.enableCache(10);
+        var saved = repo.createOrGet(id);
+        saved.setValue("foo");
+        repo.save(saved, EventStore.BEGINNING);
+
+        var loaded = repo.getById(id);
+
+        assertThat(loaded, is(sameInstance(saved)));
+        assertThat(loaded.getVersion(), is(1));
+        assertThat(loaded.value, is("foo"));
+    }
+
+    @Test
+    public void cached_aggregate_is_updated_with_events_saved_by_others() {
+        var eventStore = new InMemoryEventStore();
+        var repo = new GuineaPigRepository(eventStore);
+        repo.enableCache(10);
+        var saved = repo.createOrGet(id);
+        saved.setValue("foo");
+        repo.save(saved, EventStore.BEGINNING);
+
+        eventStore.saveEvents(id, List.of(Envelope.newMessage(new ValueChanged("bar"))), 1);
+        var loaded = repo.getById(id);
+
+        assertThat(loaded, is(sameInstance(saved)));
+        assertThat(loaded.getVersion(), is(2));
+        assertThat(loaded.value, is("bar"));
+    }
+
+    @Test
+    public void aggregate_is_not_cached_while_a_command_is_using_it() {
+        repo.enableCache(10);
+        saveEvents(id, "foo");
+
+        var first = repo.getById(id);
+        var second = repo.getById(id);
+
+        assertThat(second, is(not(sameInstance(first))));
+    }
+
+    @Test
+    public void cached_aggregate_is_invalidated_on_optimistic_locking_failure() {
+        repo.enableCache(10);
+        saveEvents(id, "foo");
+        var stale = repo.getById(id);
+        saveEvents(id, "bar");
+
+        stale.setValue("stale");
+        assertThrows(OptimisticLockingException.class, () -> {
+            repo.save(stale, 1);
+        });
+
+        var loaded = repo.getById(id);
+        assertThat(loaded, is(not(sameInstance(stale))));
+        assertThat(loaded.getVersion(), is(2));
+        assertThat(loaded.value, is("bar"));
+    }
+
+    @Test
+    public void cache_evicts_the_least_recently_used_aggregates() {
+        repo.enableCache(1);
+        var id2 = UUID.randomUUID();
+        var first = repo.createOrGet(id);
+        first.setValue("foo");
+        repo.save(first, EventStore.BEGINNING);
+        var second = repo.createOrGet(id2);
+        second.setValue("bar");
+        repo.save(second, EventStore.BEGINNING);
+
+        assertThat(repo.getById(id), is(not(sameInstance(first))));
+        assertThat(repo.getById(id2), is(sameInstance(second)));
+    }
+
     private Commit saveEvents(UUID id, String... values) {
         var entity = repo.createOrGet(id);
         var originalVersion = entity.getVersion();
@@ -95,6 +238,15 @@ public class RepositoryTest {
         return repo.save(entity, originalVersion);
     }
 
+    private static void saveEvents(SnapshottableGuineaPigRepository repo, UUID id, String... values) {
+        var entity = repo.createOrGet(id);
+        var originalVersion = entity.getVersion();
+        for (var value : values) {
+            entity.setValue(value);
+        }
+        repo.save(entity, originalVersion);
+    }
+
     static class GuineaPigRepository extends Repository<GuineaPig> {
         public GuineaPigRepository(EventStore eventStore) {
             super(eventStore);
@@ -114,6 +266,38 @@ public class RepositoryTest {
         }
     }
 
+    static class SnapshottableGuineaPigRepository extends Repository<SnapshottableGuineaPig> {
+        public SnapshottableGuineaPigRepository(EventStore eventStore) {
+            super(eventStore);
+        }
+    }
+
+    static class SnapshottableGuineaPig extends AggregateRoot implements Snapshottable<String> {
+        public String value;
+        public final List<String> history = new ArrayList<>();
+
+        @EventListener
+        private void apply(ValueChanged event) {
+            this.value = event.value;
+            this.history.add(event.value);
+        }
+
+        public void setValue(String value) {
+            publish(new ValueChanged(value));
+        }
+
+        @Override
+        public String takeSnapshot() {
+            return value;
+        }
+
+        @Override
+        public void restoreSnapshot(String snapshot) {
+            this.value = snapshot;
+            this.history.add(snapshot);
+        }
+    }
+
     static class ValueChanged implements Event {
         public final String value;
 
@@ -0,0 +1,79 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Tag("fast")
+public class AppendOnlyLogTest {
+
+    private final AppendOnlyLog<Integer> log = new AppendOnlyLog<>();
+
+    @Test
+    public void appended_elements_are_visible_only_after_publishing() {
+        log.append(1);
+        log.append(2);
+
+        assertThat("before publish", log.size(), is(0));
+        assertThat("before publish", log.view(0), is(empty()));
+
+        log.publish();
+
+        assertThat("after publish", log.size(), is(2));
+        assertThat("after publish", log.view(0), is(List.of(1, 2)));
+    }
+
+    @Test
+    public void views_are_not_affected_by_later_appends() {
+        log.append(1);
+        log.publish();
+        var view = log.view(0);
+
+        log.append(2);
+        log.publish();
+
+        assertThat(view, is(List.of(1)));
+    }
+
+    @Test
+    public void views_can_start_from_the_middle() {
+        appendAll(range(0, 5));
+
+        assertThat("middle", log.view(3), is(List.of(3, 4)));
+        assertThat("end", log.view(5), is(empty()));
+        assertThrows(IndexOutOfBoundsException.class, () -> log.view(6));
+    }
+
+    @Test
+    public void grows_over_many_chunks() {
+        var expected = range(0, 10_000);
+
+        appendAll(expected);
+
+        assertThat(log.view(0), is(expected));
+        assertThat(log.view(9_000), is(expected.subList(9_000, 10_000)));
+    }
+
+    private void appendAll(List<Integer> elements) {
+        for (var element : elements) {
+            log.append(element);
+        }
+        log.publish();
+    }
+
+    private static List<Integer> range(int start, int end) {
+        return IntStream.range(start, end).boxed().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,111 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import fi.luontola.cqrshotel.Application;
+import fi.luontola.cqrshotel.reservation.events.PriceOffered;
+import org.javamoney.moneta.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the speed of the event codecs. Prints the size of a serialized event with each codec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventCodecBenchmark {
+
+    public enum Codec {
+        JSON {
+            @Override
+            EventCodec create() {
+                return new JsonEventCodec(new Application().jacksonObjectMapper());
+            }
+        },
+        SMILE {
+            @Override
+            EventCodec create() {
+                return new SmileEventCodec(Application.configureObjectMapper(new ObjectMapper(new SmileFactory())));
+            }
+        };
+
+        abstract EventCodec create();
+    }
+
+    @Param({
+            "JSON",
+            "SMILE",
+    })
+    public Codec codecType;
+
+    private EventCodec codec;
+    private PriceOffered event;
+    private EventMetadata metadata;
+    private byte[] serializedEvent;
+    private byte[] serializedMetadata;
+
+    @Setup
+    public void prepare() {
+        codec = codecType.create();
+        event = new PriceOffered(UUID.randomUUID(), LocalDate.of(2019, 1, 1), Money.of(100, "EUR"), Instant.now());
+        metadata = new EventMetadata();
+        metadata.messageId = UUID.randomUUID();
+        metadata.correlationId = UUID.randomUUID();
+        metadata.causationId = UUID.randomUUID();
+        metadata.type = "PriceOffered";
+        metadata.version = 1;
+        serializedEvent = codec.serialize(event);
+        serializedMetadata = codec.serialize(metadata);
+        System.out.println();
+        System.out.println(codecType + " event size: " + serializedEvent.length + " bytes, metadata size: " + serializedMetadata.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] serializeEvent() {
+        return codec.serialize(event);
+    }
+
+    @Benchmark
+    public byte[] serializeMetadata() {
+        return codec.serialize(metadata);
+    }
+
+    @Benchmark
+    public PriceOffered deserializeEvent() {
+        return codec.deserialize(serializedEvent, PriceOffered.class);
+    }
+
+    @Benchmark
+    public EventMetadata deserializeMetadata() {
+        return codec.deserialize(serializedMetadata, EventMetadata.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        var opt = new OptionsBuilder()
+                .include(EventCodecBenchmark.class.getSimpleName())
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+}
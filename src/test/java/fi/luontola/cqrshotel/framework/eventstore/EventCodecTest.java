@@ -0,0 +1,95 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import fi.luontola.cqrshotel.Application;
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.eventstore.EventStoreContract.DummyEvent;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@Tag("fast")
+public class EventCodecTest {
+
+    private static final EventTypeRegistry eventTypes = new EventTypeRegistry()
+            .register("DummyEvent", DummyEvent.class);
+
+    private final EventCodec json = new JsonEventCodec(Application.configureObjectMapper(new ObjectMapper()));
+    private final EventCodec smile = new SmileEventCodec(Application.configureObjectMapper(new ObjectMapper(new SmileFactory())));
+
+    @Test
+    public void json_round_trip() {
+        assertRoundTrip(json, new Envelope<>(new DummyEvent("foo"), UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()));
+    }
+
+    @Test
+    public void smile_round_trip() {
+        assertRoundTrip(smile, new Envelope<>(new DummyEvent("foo"), UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()));
+    }
+
+    @Test
+    public void metadata_may_be_missing_the_causation_ID() {
+        var original = new Envelope<Event>(new DummyEvent("foo"), UUID.randomUUID(), UUID.randomUUID(), null);
+        assertRoundTrip(json, original);
+        assertRoundTrip(smile, original);
+    }
+
+    @Test
+    public void reads_events_which_were_saved_before_the_short_type_IDs() {
+        var data = bytes("{\"message\": \"foo\"}");
+        var metadata = bytes("{\"messageId\": \"d2a0a6ca-4c7c-4b80-8e05-3c1f3c0c6b1e\", " +
+                "\"correlationId\": \"5e7b9f36-3a4e-4bc8-9d6e-1b4c2f9e0a7d\", " +
+                "\"causationId\": null, " +
+                "\"type\": \"" + DummyEvent.class.getName() + "\", " +
+                "\"version\": 1, " +
+                "\"unknownField\": {\"foo\": [1, 2, 3]}}");
+
+        var event = json.deserializeEvent(data, metadata, new EventTypeRegistry());
+
+        assertThat(event, is(new Envelope<>(new DummyEvent("foo"),
+                UUID.fromString("d2a0a6ca-4c7c-4b80-8e05-3c1f3c0c6b1e"),
+                UUID.fromString("5e7b9f36-3a4e-4bc8-9d6e-1b4c2f9e0a7d"),
+                null)));
+    }
+
+    @Test
+    public void reads_only_the_event_type_from_metadata() {
+        var metadata = bytes("{\"unknownField\": {\"type\": [\"foo\"]}, " +
+                "\"messageId\": \"d2a0a6ca-4c7c-4b80-8e05-3c1f3c0c6b1e\", " +
+                "\"type\": \"DummyEvent\", " +
+                "\"version\": 1}");
+
+        assertThat(json.readEventType(metadata), is("DummyEvent"));
+    }
+
+    private static void assertRoundTrip(EventCodec codec, Envelope<Event> original) {
+        var meta = new EventMetadata();
+        meta.messageId = original.messageId;
+        meta.correlationId = original.correlationId;
+        meta.causationId = original.causationId;
+        meta.type = eventTypes.getId(original.payload.getClass());
+        meta.version = 1;
+        var data = codec.serialize(original.payload);
+        var metadata = codec.serialize(meta);
+
+        var deserialized = codec.deserializeEvent(data, metadata, eventTypes);
+
+        assertThat(deserialized, is(original));
+        assertThat(codec.readEventType(metadata), is(meta.type));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
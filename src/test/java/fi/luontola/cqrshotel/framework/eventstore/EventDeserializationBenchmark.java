@@ -0,0 +1,106 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import fi.luontola.cqrshotel.Application;
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.reservation.events.PriceOffered;
+import org.javamoney.moneta.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many stored events per second can be turned back into {@link Envelope}s.
+ * The "naive" benchmark is how events were deserialized before: data binding of the metadata,
+ * a class lookup by name and a generic {@link ObjectMapper#readValue} for every event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventDeserializationBenchmark {
+
+    @Param({
+            "JSON",
+            "SMILE",
+    })
+    public String format;
+
+    private ObjectMapper objectMapper;
+    private EventCodec codec;
+    private EventTypeRegistry eventTypes;
+    private byte[] data;
+    private byte[] shortTypeMetadata;
+    private byte[] classNameMetadata;
+
+    @Setup
+    public void prepare() {
+        if (format.equals("SMILE")) {
+            objectMapper = Application.configureObjectMapper(new ObjectMapper(new SmileFactory()));
+            codec = new SmileEventCodec(objectMapper);
+        } else {
+            objectMapper = Application.configureObjectMapper(new ObjectMapper());
+            codec = new JsonEventCodec(objectMapper);
+        }
+        eventTypes = new EventTypeRegistry()
+                .register("PriceOffered", PriceOffered.class);
+
+        var event = new PriceOffered(UUID.randomUUID(), LocalDate.of(2019, 1, 1), Money.of(100, "EUR"), Instant.now());
+        data = codec.serialize(event);
+        var meta = new EventMetadata();
+        meta.messageId = UUID.randomUUID();
+        meta.correlationId = UUID.randomUUID();
+        meta.causationId = UUID.randomUUID();
+        meta.version = 1;
+        meta.type = PriceOffered.class.getName();
+        classNameMetadata = codec.serialize(meta);
+        meta.type = eventTypes.getId(PriceOffered.class);
+        shortTypeMetadata = codec.serialize(meta);
+    }
+
+    @Benchmark
+    public Envelope<Event> naive() throws IOException, ClassNotFoundException {
+        var meta = objectMapper.readValue(classNameMetadata, EventMetadata.class);
+        var event = (Event) objectMapper.readValue(data, Class.forName(meta.type));
+        return new Envelope<>(event, meta.messageId, meta.correlationId, meta.causationId);
+    }
+
+    @Benchmark
+    public Envelope<Event> optimized() {
+        return codec.deserializeEvent(data, shortTypeMetadata, eventTypes);
+    }
+
+    @Benchmark
+    public Envelope<Event> optimizedWithClassName() {
+        return codec.deserializeEvent(data, classNameMetadata, eventTypes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        var opt = new OptionsBuilder()
+                .include(EventDeserializationBenchmark.class.getSimpleName())
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -16,12 +16,14 @@ import org.junit.jupiter.api.Test;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
@@ -31,8 +33,6 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public abstract class EventStoreContract {
 
-    // TODO: use a cursor to search results
-
     protected EventStore eventStore;
 
     @BeforeEach
@@ -93,6 +93,55 @@ public abstract class EventStoreContract {
         assertThat(e.getMessage(), is("expected version 1 but was 2 for stream " + streamId));
     }
 
+    @Test
+    public void saving_events_to_many_streams_atomically() {
+        var one = dummyEvent("one");
+        var two = dummyEvent("two");
+        var three = dummyEvent("three");
+        var streamId1 = UUID.randomUUID();
+        var streamId2 = UUID.randomUUID();
+        eventStore.saveEvents(streamId1, Arrays.asList(one), EventStore.BEGINNING);
+        var start = eventStore.getCurrentPosition();
+
+        var position = eventStore.saveEvents(Arrays.asList(
+                new StreamAppend(streamId1, Arrays.asList(two), 1),
+                new StreamAppend(streamId2, Arrays.asList(three), EventStore.BEGINNING)));
+
+        assertThat("position", position, is(start + 2));
+        assertThat(eventStore.getAllEvents(start), is(Arrays.asList(
+                new PersistedEvent(two, streamId1, 2, start + 1),
+                new PersistedEvent(three, streamId2, 1, start + 2))));
+    }
+
+    @Test
+    public void saves_nothing_if_any_of_the_streams_is_at_the_wrong_version() {
+        var streamId1 = UUID.randomUUID();
+        var streamId2 = UUID.randomUUID();
+        eventStore.saveEvents(streamId2, Arrays.asList(dummyEvent("one")), EventStore.BEGINNING);
+        var start = eventStore.getCurrentPosition();
+
+        var e = assertThrows(OptimisticLockingException.class, () -> {
+            eventStore.saveEvents(Arrays.asList(
+                    new StreamAppend(streamId1, Arrays.asList(dummyEvent("two")), EventStore.BEGINNING),
+                    new StreamAppend(streamId2, Arrays.asList(dummyEvent("three")), EventStore.BEGINNING)));
+        });
+        assertThat(e.getMessage(), is("expected version 0 but was 1 for stream " + streamId2));
+        assertThat("stream 1", eventStore.getEventsForStream(streamId1), is(empty()));
+        assertThat("stream 2", eventStore.getCurrentVersion(streamId2), is(1));
+        assertThat("position", eventStore.getCurrentPosition(), is(start));
+    }
+
+    @Test
+    public void a_stream_may_appear_only_once_in_an_atomic_save() {
+        var streamId = UUID.randomUUID();
+
+        assertThrows(IllegalArgumentException.class, () -> {
+            eventStore.saveEvents(Arrays.asList(
+                    new StreamAppend(streamId, Arrays.asList(dummyEvent("one")), EventStore.BEGINNING),
+                    new StreamAppend(streamId, Arrays.asList(dummyEvent("two")), 1)));
+        });
+    }
+
     @Test
     public void non_existing_streams_are_reported_as_empty() {
         var streamId = UUID.randomUUID();
@@ -170,6 +219,66 @@ public abstract class EventStoreContract {
                 new PersistedEvent(two, streamId2, 1, start + 2))));
     }
 
+    @Test
+    public void reading_only_some_types_of_events() {
+        var one = dummyEvent("one");
+        var other = new Envelope<Event>(new OtherDummyEvent("other"), UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        var two = dummyEvent("two");
+        var start = eventStore.getCurrentPosition();
+        var streamId = UUID.randomUUID();
+        eventStore.saveEvents(streamId, Arrays.asList(one, other, two), EventStore.BEGINNING);
+
+        var expected = Arrays.asList(
+                new PersistedEvent(one, streamId, 1, start + 1),
+                new PersistedEvent(two, streamId, 3, start + 3));
+        assertThat("get", eventStore.getAllEvents(start, Set.of(DummyEvent.class)), is(expected));
+        try (var events = eventStore.streamAllEvents(start, Set.of(DummyEvent.class))) {
+            assertThat("stream", events.collect(Collectors.toList()), is(expected));
+        }
+    }
+
+    @Test
+    public void streaming_events_from_all_streams() {
+        var one = dummyEvent("one");
+        var two = dummyEvent("two");
+        var three = dummyEvent("three");
+        var start = eventStore.getCurrentPosition();
+        var streamId1 = UUID.randomUUID();
+        var streamId2 = UUID.randomUUID();
+        eventStore.saveEvents(streamId1, Arrays.asList(one, two), EventStore.BEGINNING);
+        eventStore.saveEvents(streamId2, Arrays.asList(three), EventStore.BEGINNING);
+
+        List<PersistedEvent> sinceStart;
+        try (var events = eventStore.streamAllEvents(start)) {
+            sinceStart = events.collect(Collectors.toList());
+        }
+        List<PersistedEvent> sinceMiddle;
+        try (var events = eventStore.streamAllEvents(start + 2)) {
+            sinceMiddle = events.collect(Collectors.toList());
+        }
+
+        assertThat("since start", sinceStart, is(Arrays.asList(
+                new PersistedEvent(one, streamId1, 1, start + 1),
+                new PersistedEvent(two, streamId1, 2, start + 2),
+                new PersistedEvent(three, streamId2, 1, start + 3))));
+        assertThat("since middle", sinceMiddle, is(Arrays.asList(
+                new PersistedEvent(three, streamId2, 1, start + 3))));
+    }
+
+    @Test
+    public void streaming_events_can_be_stopped_before_reaching_the_end() {
+        var start = eventStore.getCurrentPosition();
+        var streamId = UUID.randomUUID();
+        eventStore.saveEvents(streamId, createBatch(10, 1), EventStore.BEGINNING);
+
+        try (var events = eventStore.streamAllEvents(start)) {
+            var first = events.findFirst();
+            assertThat(first.get().position, is(start + 1));
+        }
+        // the store must still be usable after closing a partially read stream
+        assertThat(eventStore.getCurrentVersion(streamId), is(10));
+    }
+
     @Test
     public void reports_the_global_position_of_the_last_saved_event() {
         var a = dummyEvent("a");
@@ -289,11 +398,11 @@ public abstract class EventStoreContract {
             batches.add(events.subList(start, start + batchSize));
         }
         for (var batch : batches) {
-            var sample = (DummyEvent) batch.get(0).event.payload;
+            var sample = (DummyEvent) batch.get(0).getEvent().payload;
             var prefix = sample.message.substring(0, sample.message.indexOf('.'));
             try {
                 for (var i = 0; i < batch.size(); i++) {
-                    var event = (DummyEvent) batch.get(i).event.payload;
+                    var event = (DummyEvent) batch.get(i).getEvent().payload;
                     assertThat(event.message, is(prefix + "." + i));
                 }
             } catch (AssertionError e) {
@@ -302,7 +411,7 @@ public abstract class EventStoreContract {
         }
     }
 
-    private static Envelope<Event> dummyEvent(String message) {
+    static Envelope<Event> dummyEvent(String message) {
         // fill in all IDs to make sure that they all are saved and loaded correctly
         return new Envelope<>(new DummyEvent(message), UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
     }
@@ -315,4 +424,13 @@ public abstract class EventStoreContract {
             this.message = message;
         }
     }
-}
\ No newline at end of file
+
+    public static class OtherDummyEvent extends Struct implements Event {
+        public final String message;
+
+        @JsonCreator
+        public OtherDummyEvent(@JsonProperty("message") String message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.luontola.cqrshotel.Application;
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.eventstore.EventStoreContract.DummyEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the event store implementations at saving a command's events,
+ * reading the latest events like the projections do, and replaying the whole log.
+ * The PSQL store requires the test database to be running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventStore_ImplementationsBenchmark {
+
+    private static final int EXISTING_EVENTS = 10_000;
+
+    @Param({
+            "IN_MEMORY",
+            "FILE",
+            "FILE_SYNC",
+            "PSQL",
+    })
+    public String store;
+
+    private ConfigurableApplicationContext app;
+    private Path directory;
+    private EventStore eventStore;
+    private List<Envelope<Event>> batch;
+    private long recentPosition;
+
+    @Setup
+    public void prepare() throws IOException {
+        var codec = new JsonEventCodec(Application.configureObjectMapper(new ObjectMapper()));
+        if (store.equals("PSQL")) {
+            app = new SpringApplicationBuilder(Application.class)
+                    .profiles("test")
+                    .web(WebApplicationType.NONE)
+                    .run();
+            eventStore = new PsqlEventStore(app.getBean(DataSource.class), List.of(codec), new EventTypeRegistry(),
+                    PsqlEventStore.DEFAULT_FETCH_SIZE, PsqlEventStore.Sequencing.TABLE_LOCK);
+        } else if (store.startsWith("FILE")) {
+            directory = Files.createTempDirectory(getClass().getSimpleName());
+            eventStore = new FileEventStore(directory, List.of(codec), new EventTypeRegistry(),
+                    FileEventStore.DEFAULT_SEGMENT_SIZE, store.equals("FILE_SYNC"));
+        } else {
+            eventStore = new InMemoryEventStore();
+        }
+        batch = Stream.generate(() -> Envelope.<Event>newMessage(new DummyEvent("price offered")))
+                .limit(10)
+                .collect(Collectors.toList());
+        for (var i = 0; i < EXISTING_EVENTS / batch.size(); i++) {
+            eventStore.saveEvents(UUID.randomUUID(), batch, EventStore.BEGINNING);
+        }
+        recentPosition = eventStore.getCurrentPosition() - 10;
+    }
+
+    @TearDown
+    public void cleanup() throws IOException {
+        if (app != null) {
+            app.close();
+        }
+        if (directory != null) {
+            ((FileEventStore) eventStore).close();
+            try (var files = Files.walk(directory)) {
+                for (var file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public long saveEvents() {
+        return eventStore.saveEvents(UUID.randomUUID(), batch, EventStore.BEGINNING);
+    }
+
+    @Benchmark
+    public void readRecentEvents(Blackhole bh) {
+        // the file store decodes the events only when they are accessed
+        eventStore.getAllEvents(recentPosition).forEach(bh::consume);
+    }
+
+    @Benchmark
+    public void replayAllEvents(Blackhole bh) {
+        try (var events = eventStore.streamAllEvents(EventStore.BEGINNING)) {
+            events.forEach(bh::consume);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        var opt = new OptionsBuilder()
+                .include(EventStore_ImplementationsBenchmark.class.getSimpleName())
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+}
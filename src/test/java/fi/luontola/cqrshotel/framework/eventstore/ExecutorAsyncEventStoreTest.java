@@ -0,0 +1,78 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static fi.luontola.cqrshotel.framework.eventstore.EventStoreContract.dummyEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Tag("fast")
+public class ExecutorAsyncEventStoreTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, task -> new Thread(task, "event-store-io"));
+    private final InMemoryEventStore eventStore = new InMemoryEventStore();
+    private final AsyncEventStore asyncEventStore = new ExecutorAsyncEventStore(eventStore, executor);
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void saves_and_reads_events_asynchronously() {
+        var streamId = UUID.randomUUID();
+        var event = dummyEvent("one");
+
+        var position = asyncEventStore.saveEvents(streamId, List.of(event), EventStore.BEGINNING).join();
+
+        var expected = List.of(new PersistedEvent(event, streamId, 1, 1));
+        assertThat(position, is(1L));
+        assertThat(asyncEventStore.getEventsForStream(streamId).join(), is(expected));
+        assertThat(asyncEventStore.getAllEvents().join(), is(expected));
+    }
+
+    @Test
+    public void the_blocking_calls_are_made_in_the_executor() {
+        var thread = asyncEventStore.getAllEvents()
+                .thenApply(events -> Thread.currentThread().getName())
+                .join();
+
+        assertThat(thread, startsWith("event-store-io"));
+    }
+
+    @Test
+    public void failures_complete_the_future_exceptionally() {
+        var streamId = UUID.randomUUID();
+        eventStore.saveEvents(streamId, List.of(dummyEvent("one")), EventStore.BEGINNING);
+
+        var future = asyncEventStore.saveEvents(streamId, List.of(dummyEvent("two")), EventStore.BEGINNING);
+
+        var e = assertThrows(CompletionException.class, future::join);
+        assertThat(e.getCause(), is(instanceOf(OptimisticLockingException.class)));
+    }
+
+    @Test
+    public void in_memory_variant_completes_immediately() {
+        var inMemory = ExecutorAsyncEventStore.inMemory();
+
+        var future = inMemory.saveEvents(UUID.randomUUID(), List.of(dummyEvent("one")), EventStore.BEGINNING);
+
+        assertThat(future.isDone(), is(true));
+        assertThat(inMemory.getCurrentPosition().join(), is(1L));
+    }
+}
@@ -1,4 +1,4 @@
-// Copyright © 2016-2018 Esko Luontola
+// Copyright © 2016-2019 Esko Luontola
 // This software is released under the Apache License 2.0.
 // The license text is at http://www.apache.org/licenses/LICENSE-2.0
 
@@ -10,6 +10,7 @@ import fi.luontola.cqrshotel.framework.Event;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
@@ -33,6 +34,15 @@ public class FakeEventStore implements EventStore {
         return eventStore.saveEvents(streamId, newEvents, expectedVersion);
     }
 
+    @Override
+    public long saveEvents(List<StreamAppend> appends) {
+        for (var append : appends) {
+            assertNewOrSame(append.streamId);
+            produced.addAll(append.newEvents);
+        }
+        return eventStore.saveEvents(appends);
+    }
+
     private void assertNewOrSame(UUID streamId) {
         assertThat("streamId", streamId, is(notNullValue()));
         if (expectedStreamId == null) {
@@ -54,6 +64,11 @@ public class FakeEventStore implements EventStore {
         return eventStore.getAllEvents(sincePosition);
     }
 
+    @Override
+    public Stream<PersistedEvent> streamAllEvents(long sincePosition) {
+        return eventStore.streamAllEvents(sincePosition);
+    }
+
     @Override
     public int getCurrentVersion(UUID streamId) {
         return eventStore.getCurrentVersion(streamId);
@@ -0,0 +1,145 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.luontola.cqrshotel.Application;
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static fi.luontola.cqrshotel.framework.eventstore.EventStoreContract.dummyEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Tag("fast")
+public class FileEventStoreTest extends EventStoreContract {
+
+    // small enough that the tests will fill many segments
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    private final EventCodec codec = new JsonEventCodec(Application.configureObjectMapper(new ObjectMapper()));
+    private Path directory;
+
+    @Override
+    protected void init() {
+        try {
+            directory = Files.createTempDirectory("FileEventStoreTest");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        eventStore = open();
+    }
+
+    @AfterEach
+    public void cleanup() throws IOException {
+        ((FileEventStore) eventStore).close();
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private FileEventStore open() {
+        return new FileEventStore(directory, List.of(codec), new EventTypeRegistry(), SEGMENT_SIZE, false);
+    }
+
+    private void reopen() {
+        ((FileEventStore) eventStore).close();
+        eventStore = open();
+    }
+
+    @Test
+    public void events_are_persisted_over_restarts() {
+        var streamId = UUID.randomUUID();
+        for (var i = 0; i < 1000; i++) {
+            eventStore.saveEvents(streamId, Arrays.asList(dummyEvent("event " + i)), i);
+        }
+        var expected = eventStore.getAllEvents();
+
+        reopen();
+
+        assertThat("all events", eventStore.getAllEvents(), is(expected));
+        assertThat("stream events", eventStore.getEventsForStream(streamId), is(expected));
+        assertThat("current position", eventStore.getCurrentPosition(), is(1000L));
+        assertThat("current version", eventStore.getCurrentVersion(streamId), is(1000));
+    }
+
+    @Test
+    public void an_incomplete_save_is_discarded_on_startup() throws IOException {
+        var streamId = UUID.randomUUID();
+        eventStore.saveEvents(streamId, Arrays.asList(dummyEvent("one"), dummyEvent("two")), EventStore.BEGINNING);
+        var expected = eventStore.getAllEvents();
+        eventStore.saveEvents(streamId, Arrays.asList(dummyEvent("three"), dummyEvent("four")), 2);
+        ((FileEventStore) eventStore).close();
+
+        // simulate a crash in the middle of writing the last event
+        var segment = directory.resolve(String.format("%020d.log", 0));
+        var bytes = Files.readAllBytes(segment);
+        var end = bytes.length;
+        while (bytes[end - 1] == 0) {
+            end--;
+        }
+        bytes[end - 1] ^= 1;
+        Files.write(segment, bytes);
+        eventStore = open();
+
+        assertThat("all events", eventStore.getAllEvents(), is(expected));
+        assertThat("current version", eventStore.getCurrentVersion(streamId), is(2));
+        var three = dummyEvent("three");
+        eventStore.saveEvents(streamId, Arrays.asList(three), 2);
+        reopen();
+        assertThat("saving after recovery", eventStore.getEventsForStream(streamId, 2),
+                is(Arrays.asList(new PersistedEvent(three, streamId, 3, 3))));
+    }
+
+    @Test
+    public void a_failed_save_leaves_no_trace() throws IOException {
+        var streamId = UUID.randomUUID();
+        eventStore.saveEvents(streamId, Arrays.asList(dummyEvent("one")), EventStore.BEGINNING);
+        var expected = eventStore.getAllEvents();
+        var newEvents = new ArrayList<Envelope<Event>>();
+        for (var i = 0; i < 1000; i++) {
+            newEvents.add(dummyEvent("event " + i));
+        }
+
+        // fail after the save has filled the first segment and created the second
+        var blocker = directory.resolve(String.format("%020d.log", 2));
+        Files.createDirectory(blocker);
+        assertThrows(RuntimeException.class, () -> eventStore.saveEvents(streamId, newEvents, 1));
+
+        assertThat("all events", eventStore.getAllEvents(), is(expected));
+        assertThat("current position", eventStore.getCurrentPosition(), is(1L));
+        assertThat("current version", eventStore.getCurrentVersion(streamId), is(1));
+
+        Files.delete(blocker);
+        eventStore.saveEvents(streamId, newEvents, 1);
+        var expectedAfterRetry = eventStore.getAllEvents();
+        assertThat("current position after retry", eventStore.getCurrentPosition(), is(1001L));
+        reopen();
+        assertThat("all events after restart", eventStore.getAllEvents(), is(expectedAfterRetry));
+    }
+
+    @Test
+    public void only_one_instance_may_use_a_directory_at_a_time() {
+        var e = assertThrows(IllegalStateException.class, this::open);
+        assertThat(e.getMessage(), is("Event store is already in use: " + directory));
+    }
+}
@@ -8,10 +8,14 @@ import fi.luontola.cqrshotel.framework.Envelope;
 import fi.luontola.cqrshotel.framework.Event;
 import fi.luontola.cqrshotel.framework.eventstore.EventStoreContract.DummyEvent;
 import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
 import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
@@ -21,6 +25,10 @@ import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Measures reading the latest events, like the projections do after every command.
+ * The grouped benchmarks read concurrently with other readers and with a writer.
+ */
 @State(Scope.Benchmark)
 public class InMemoryEventStore_ReadRecentEventsBenchmark {
 
@@ -32,13 +40,18 @@ public class InMemoryEventStore_ReadRecentEventsBenchmark {
     })
     public int eventCount;
 
-    private final InMemoryEventStore eventStore = new InMemoryEventStore();
+    // a few microseconds between writes, so that the writer won't fill the memory during an iteration
+    private static final int WRITER_THINK_TIME = 1000;
+
+    private final Envelope<Event> event = Envelope.newMessage(new DummyEvent(""));
     private final UUID streamId = UUID.randomUUID();
+    private final UUID writerStreamId = UUID.randomUUID();
+    private InMemoryEventStore eventStore;
     private int readPosition;
 
-    @Setup
+    @Setup(Level.Iteration)
     public void prepare() {
-        Envelope<Event> event = Envelope.newMessage(new DummyEvent(""));
+        eventStore = new InMemoryEventStore();
         var events = Stream.generate(() -> event)
                 .limit(eventCount)
                 .collect(Collectors.toList());
@@ -56,6 +69,28 @@ public class InMemoryEventStore_ReadRecentEventsBenchmark {
         return eventStore.getAllEvents(readPosition);
     }
 
+    @Benchmark
+    @Group("readers")
+    @GroupThreads(4)
+    public List<PersistedEvent> readers_getAllEvents() {
+        return eventStore.getAllEvents(eventStore.getCurrentPosition() - 10);
+    }
+
+    @Benchmark
+    @Group("readersAndWriter")
+    @GroupThreads(3)
+    public List<PersistedEvent> readersAndWriter_getAllEvents() {
+        return eventStore.getAllEvents(eventStore.getCurrentPosition() - 10);
+    }
+
+    @Benchmark
+    @Group("readersAndWriter")
+    @GroupThreads(1)
+    public long readersAndWriter_saveEvents() {
+        Blackhole.consumeCPU(WRITER_THINK_TIME);
+        return eventStore.saveEvents(writerStreamId, List.of(event), eventStore.getCurrentVersion(writerStreamId));
+    }
+
     public static void main(String[] args) throws RunnerException {
         var opt = new OptionsBuilder()
                 .include(InMemoryEventStore_ReadRecentEventsBenchmark.class.getSimpleName())
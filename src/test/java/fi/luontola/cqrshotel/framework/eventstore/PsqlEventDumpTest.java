@@ -0,0 +1,113 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.luontola.cqrshotel.Application;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static fi.luontola.cqrshotel.framework.eventstore.EventStoreContract.dummyEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.NONE;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = Application.class, webEnvironment = NONE)
+@ActiveProfiles("test")
+@Tag("slow")
+public class PsqlEventDumpTest {
+
+    private static final String TARGET_SCHEMA = "test_import";
+
+    @Autowired
+    DataSource dataSource;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    private Connection targetConnection;
+    private DataSource targetDataSource;
+
+    @BeforeEach
+    public void emptyTargetSchema() throws SQLException {
+        var flyway = Flyway.configure()
+                .dataSource(dataSource)
+                .schemas(TARGET_SCHEMA)
+                .cleanDisabled(false)
+                .load();
+        flyway.clean();
+        flyway.migrate();
+
+        targetConnection = dataSource.getConnection();
+        try (var statement = targetConnection.createStatement()) {
+            statement.execute("SET search_path TO " + TARGET_SCHEMA);
+        }
+        targetDataSource = new SingleConnectionDataSource(targetConnection, true);
+    }
+
+    @AfterEach
+    public void closeTargetConnection() throws SQLException {
+        try (var statement = targetConnection.createStatement()) {
+            statement.execute("RESET search_path");
+        }
+        targetConnection.close();
+    }
+
+    @Test
+    public void imported_events_are_identical_to_the_exported_events() {
+        var source = new PsqlEventStore(dataSource, objectMapper);
+        var streamId1 = UUID.randomUUID();
+        var streamId2 = UUID.randomUUID();
+        source.saveEvents(streamId1, Arrays.asList(dummyEvent("one"), dummyEvent("two")), EventStore.BEGINNING);
+        source.saveEvents(streamId2, Arrays.asList(dummyEvent("three")), EventStore.BEGINNING);
+        source.saveEvents(streamId1, Arrays.asList(dummyEvent("four")), 2);
+
+        var file = new ByteArrayOutputStream();
+        var exported = new PsqlEventDump(dataSource).exportEvents(file);
+        var imported = new PsqlEventDump(targetDataSource).importEvents(new ByteArrayInputStream(file.toByteArray()));
+
+        var target = new PsqlEventStore(targetDataSource, objectMapper);
+        assertThat("imported count", imported, is(exported));
+        assertThat("all events", target.getAllEvents(EventStore.BEGINNING), is(source.getAllEvents(EventStore.BEGINNING)));
+        assertThat("current position", target.getCurrentPosition(), is(source.getCurrentPosition()));
+        assertThat("stream 1 version", target.getCurrentVersion(streamId1), is(3));
+        assertThat("stream 2 version", target.getCurrentVersion(streamId2), is(1));
+
+        // new events continue from the imported positions and versions
+        var position = target.saveEvents(streamId1, Arrays.asList(dummyEvent("five")), 3);
+        assertThat("position of new event", position, is(source.getCurrentPosition() + 1));
+    }
+
+    @Test
+    public void cannot_import_to_a_non_empty_event_store() {
+        var target = new PsqlEventStore(targetDataSource, objectMapper);
+        target.saveEvents(UUID.randomUUID(), Arrays.asList(dummyEvent("existing")), EventStore.BEGINNING);
+        var file = new ByteArrayOutputStream();
+        new PsqlEventDump(dataSource).exportEvents(file);
+
+        var dump = new PsqlEventDump(targetDataSource);
+        assertThrows(IllegalStateException.class, () -> dump.importEvents(new ByteArrayInputStream(file.toByteArray())));
+        assertThat("current position", target.getCurrentPosition(), is(1L));
+    }
+}
@@ -0,0 +1,100 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.luontola.cqrshotel.Application;
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.eventstore.EventStoreContract.DummyEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.NONE;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = Application.class, webEnvironment = NONE)
+@ActiveProfiles("test")
+@Tag("slow")
+public class PsqlEventNotificationsTest {
+
+    private static final Duration testTimeout = Duration.ofSeconds(5);
+
+    @Autowired
+    DataSource dataSource;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    private final BlockingQueue<Long> positions = new LinkedBlockingQueue<>();
+    private PsqlEventNotifications notifications;
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        if (notifications != null) {
+            notifications.shutdown();
+        }
+    }
+
+    @Test
+    public void reports_the_current_position_on_startup() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            var eventStore = new PsqlEventStore(dataSource, objectMapper);
+            var expected = eventStore.getCurrentPosition();
+            notifications = new PsqlEventNotifications(dataSource, positions::add);
+
+            notifications.start();
+
+            assertThat(positions.take(), is(expected));
+        });
+    }
+
+    @Test
+    public void reports_the_new_position_when_events_are_saved() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            notifications = new PsqlEventNotifications(dataSource, positions::add);
+            notifications.start();
+            positions.take();
+
+            var eventStore = new PsqlEventStore(dataSource, objectMapper);
+            var position = eventStore.saveEvents(UUID.randomUUID(),
+                    List.of(Envelope.<Event>newMessage(new DummyEvent("one"))), EventStore.BEGINNING);
+
+            assertThat(positions.take(), is(position));
+        });
+    }
+
+    @Test
+    public void reports_the_new_position_when_events_are_sequenced() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            notifications = new PsqlEventNotifications(dataSource, positions::add);
+            notifications.start();
+            positions.take();
+
+            var eventStore = new PsqlEventStore(dataSource, objectMapper,
+                    PsqlEventStore.DEFAULT_FETCH_SIZE, PsqlEventStore.Sequencing.SEQUENCER);
+            var position = eventStore.saveEvents(UUID.randomUUID(),
+                    List.of(Envelope.<Event>newMessage(new DummyEvent("one"))), EventStore.BEGINNING);
+
+            assertThat(positions.take(), is(position));
+        });
+    }
+}
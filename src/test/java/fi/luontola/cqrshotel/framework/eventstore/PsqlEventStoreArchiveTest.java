@@ -0,0 +1,66 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.luontola.cqrshotel.Application;
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.NONE;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = Application.class, webEnvironment = NONE)
+@ActiveProfiles("test")
+@Tag("slow")
+public class PsqlEventStoreArchiveTest extends EventStoreContract {
+
+    @Autowired
+    DataSource dataSource;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    public void init() {
+        eventStore = new PsqlEventStore(dataSource, objectMapper) {
+            @Override
+            public long saveEvents(UUID streamId, List<Envelope<Event>> newEvents, int expectedVersion) {
+                // only the latest events are in the hot table, so most reads need both tables
+                archiveEvents(getCurrentPosition());
+                return super.saveEvents(streamId, newEvents, expectedVersion);
+            }
+        };
+    }
+
+    @Test
+    public void archived_events_are_moved_out_of_the_hot_table() {
+        var streamId = UUID.randomUUID();
+        eventStore.saveEvents(streamId, Arrays.asList(dummyEvent("one"), dummyEvent("two")), EventStore.BEGINNING);
+        var position = eventStore.getCurrentPosition();
+
+        var archived = ((PsqlEventStore) eventStore).archiveEvents(position);
+
+        var jdbc = new JdbcTemplate(dataSource);
+        assertThat("archived", archived, is(2L));
+        assertThat("hot", jdbc.queryForObject("SELECT count(*) FROM event WHERE stream_id = ?", Long.class, streamId), is(0L));
+        assertThat("cold", jdbc.queryForObject("SELECT count(*) FROM event_archive WHERE stream_id = ?", Long.class, streamId), is(2L));
+        assertThat("readable", eventStore.getEventsForStream(streamId).size(), is(2));
+    }
+}
@@ -0,0 +1,157 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.luontola.cqrshotel.Application;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static fi.luontola.cqrshotel.framework.eventstore.EventStoreContract.dummyEvent;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.NONE;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = Application.class, webEnvironment = NONE)
+@ActiveProfiles("test")
+@Tag("slow")
+public class PsqlEventStoreReadReplicaTest {
+
+    // a schema in the same database stands in for the replica
+    private static final String REPLICA_SCHEMA = "test_replica";
+
+    @Autowired
+    DataSource dataSource;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    private Connection replicaConnection;
+    private DataSource replicaDataSource;
+    private PsqlEventStore primary;
+    private PsqlEventStore replica;
+    private PsqlEventStore eventStore;
+
+    @BeforeEach
+    public void emptyReplicaSchema() throws SQLException {
+        var flyway = Flyway.configure()
+                .dataSource(dataSource)
+                .schemas(REPLICA_SCHEMA)
+                .cleanDisabled(false)
+                .load();
+        flyway.clean();
+        flyway.migrate();
+
+        replicaConnection = dataSource.getConnection();
+        try (var statement = replicaConnection.createStatement()) {
+            statement.execute("SET search_path TO " + REPLICA_SCHEMA);
+        }
+        replicaDataSource = new SingleConnectionDataSource(replicaConnection, true);
+
+        primary = new PsqlEventStore(dataSource, objectMapper);
+        replica = new PsqlEventStore(replicaDataSource, objectMapper);
+        eventStore = new PsqlEventStore(dataSource, objectMapper);
+        eventStore.enableReadReplica(replicaDataSource);
+    }
+
+    @AfterEach
+    public void closeReplicaConnection() throws SQLException {
+        try (var statement = replicaConnection.createStatement()) {
+            statement.execute("RESET search_path");
+        }
+        replicaConnection.close();
+    }
+
+    @Test
+    public void reads_from_the_replica_when_it_has_caught_up_with_the_primary() {
+        var streamId = UUID.randomUUID();
+        var start = primary.getCurrentPosition();
+        eventStore.saveEvents(streamId, Arrays.asList(dummyEvent("one")), EventStore.BEGINNING);
+        replicate();
+        // makes it visible which database the events were read from
+        replica.saveEvents(streamId, Arrays.asList(dummyEvent("only in replica")), 1);
+
+        var expected = replica.getEventsForStream(streamId);
+        assertThat("get all", eventStore.getAllEvents(start), is(expected));
+        try (var events = eventStore.streamAllEvents(start)) {
+            assertThat("stream all", events.collect(Collectors.toList()), is(expected));
+        }
+    }
+
+    @Test
+    public void reads_from_the_primary_when_the_replica_is_behind() {
+        var streamId = UUID.randomUUID();
+        var start = primary.getCurrentPosition();
+        eventStore.saveEvents(streamId, Arrays.asList(dummyEvent("one")), EventStore.BEGINNING);
+        replicate();
+        eventStore.saveEvents(streamId, Arrays.asList(dummyEvent("not yet replicated")), 1);
+
+        var expected = primary.getEventsForStream(streamId);
+        assertThat("stream", eventStore.getEventsForStream(streamId), is(expected));
+        assertThat("get all", eventStore.getAllEvents(start), is(expected));
+        try (var events = eventStore.streamAllEvents(start)) {
+            assertThat("stream all", events.collect(Collectors.toList()), is(expected));
+        }
+    }
+
+    @Test
+    public void does_not_wait_for_events_which_were_saved_by_other_processes() {
+        var streamId = UUID.randomUUID();
+        var start = primary.getCurrentPosition();
+        eventStore.saveEvents(streamId, Arrays.asList(dummyEvent("one")), EventStore.BEGINNING);
+        replicate();
+        primary.saveEvents(streamId, Arrays.asList(dummyEvent("saved by another process")), 1);
+
+        var expected = replica.getEventsForStream(streamId);
+        assertThat("get all", eventStore.getAllEvents(start), is(expected));
+    }
+
+    @Test
+    public void always_reads_the_events_of_a_stream_from_the_primary() {
+        var streamId = UUID.randomUUID();
+        eventStore.saveEvents(streamId, Arrays.asList(dummyEvent("one")), EventStore.BEGINNING);
+        replicate();
+        primary.saveEvents(streamId, Arrays.asList(dummyEvent("saved by another process")), 1);
+
+        var expected = primary.getEventsForStream(streamId);
+        assertThat(eventStore.getEventsForStream(streamId), is(expected));
+    }
+
+    @Test
+    public void reads_from_the_primary_when_the_replica_is_behind_the_read_position() {
+        var streamId = UUID.randomUUID();
+        eventStore.saveEvents(streamId, Arrays.asList(dummyEvent("one")), EventStore.BEGINNING);
+        replicate();
+        var position = primary.saveEvents(streamId, Arrays.asList(dummyEvent("two")), 1);
+        primary.saveEvents(streamId, Arrays.asList(dummyEvent("three")), 2);
+
+        assertThat("get all", eventStore.getAllEvents(position), is(primary.getEventsForStream(streamId, 2)));
+    }
+
+    private void replicate() {
+        var file = new ByteArrayOutputStream();
+        new PsqlEventDump(dataSource).exportEvents(file);
+        new PsqlEventDump(replicaDataSource).importEvents(new ByteArrayInputStream(file.toByteArray()));
+    }
+}
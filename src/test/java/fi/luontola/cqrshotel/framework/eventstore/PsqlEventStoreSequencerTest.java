@@ -0,0 +1,118 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.luontola.cqrshotel.Application;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.NONE;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = Application.class, webEnvironment = NONE)
+@ActiveProfiles("test")
+@Tag("slow")
+public class PsqlEventStoreSequencerTest extends EventStoreContract {
+
+    @Autowired
+    DataSource dataSource;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    public void init() {
+        eventStore = new PsqlEventStore(dataSource, objectMapper, PsqlEventStore.DEFAULT_FETCH_SIZE, PsqlEventStore.Sequencing.SEQUENCER);
+    }
+
+    @Test
+    public void the_events_of_a_crashed_writer_are_sequenced_when_their_stream_is_read() {
+        var streamId = UUID.randomUUID();
+        eventStore.saveEvents(streamId, List.of(dummyEvent("one")), EventStore.BEGINNING);
+        eventStore.saveEvents(streamId, List.of(dummyEvent("two")), 1);
+        simulateCrashBeforeSequencing(streamId, 2);
+
+        assertThat("stream", eventStore.getEventsForStream(streamId).size(), is(2));
+        eventStore.saveEvents(streamId, List.of(dummyEvent("three")), 2);
+        assertThat("current version", eventStore.getCurrentVersion(streamId), is(3));
+    }
+
+    @Test
+    public void the_events_of_a_crashed_writer_are_sequenced_periodically() {
+        var streamId = UUID.randomUUID();
+        var position = eventStore.saveEvents(streamId, List.of(dummyEvent("one")), EventStore.BEGINNING);
+        simulateCrashBeforeSequencing(streamId, 1);
+        assertThat("before sequencing", eventStore.getAllEvents(position - 1), is(empty()));
+
+        ((PsqlEventStore) eventStore).sequencePendingEvents();
+
+        assertThat("after sequencing", eventStore.getAllEvents(position - 1), is(eventStore.getEventsForStream(streamId)));
+    }
+
+    @Test
+    public void the_save_succeeds_even_when_sequencing_its_events_fails_at_first() {
+        eventStore = new PsqlEventStore(failingOnce("sequence_events()"), objectMapper, PsqlEventStore.DEFAULT_FETCH_SIZE, PsqlEventStore.Sequencing.SEQUENCER);
+        var streamId = UUID.randomUUID();
+
+        var position = eventStore.saveEvents(streamId, List.of(dummyEvent("one")), EventStore.BEGINNING);
+
+        assertThat(eventStore.getEventsForStream(streamId).get(0).position, is(position));
+    }
+
+    private void simulateCrashBeforeSequencing(UUID streamId, int version) {
+        // assumes that the event is the last one which was saved
+        var jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("UPDATE event SET position = NULL WHERE stream_id = ? AND version = ?", streamId, version);
+        jdbcTemplate.update("UPDATE event_head SET position = position - 1");
+    }
+
+    private DataSource failingOnce(String sql) {
+        var failures = new AtomicInteger(1);
+        InvocationHandler connections = (proxy, method, args) -> {
+            var result = invoke(method, dataSource, args);
+            if (!(result instanceof Connection)) {
+                return result;
+            }
+            var connection = (Connection) result;
+            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class}, (proxy2, method2, args2) -> {
+                if (method2.getName().equals("prepareStatement")
+                        && ((String) args2[0]).contains(sql)
+                        && failures.getAndDecrement() > 0) {
+                    throw new SQLException("simulated failure");
+                }
+                return invoke(method2, connection, args2);
+            });
+        };
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class}, connections);
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
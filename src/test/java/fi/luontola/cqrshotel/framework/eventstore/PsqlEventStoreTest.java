@@ -4,17 +4,30 @@
 
 package fi.luontola.cqrshotel.framework.eventstore;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.luontola.cqrshotel.Application;
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.ShortLivedEvent;
+import fi.luontola.cqrshotel.framework.util.Struct;
 import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import javax.sql.DataSource;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.UUID;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.NONE;
 
 @ExtendWith(SpringExtension.class)
@@ -32,4 +45,72 @@ public class PsqlEventStoreTest extends EventStoreContract {
     public void init() {
         eventStore = new PsqlEventStore(dataSource, objectMapper);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void deletes_the_short_lived_events_which_have_expired() {
+        var now = Instant.now();
+        var permanent = dummyEvent("permanent");
+        var expired = new Envelope<Event>(new ShortLivedDummyEvent("expired", now.minusSeconds(1)), UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        var valid = new Envelope<Event>(new ShortLivedDummyEvent("valid", now.plusSeconds(60)), UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        var streamId = UUID.randomUUID();
+        var start = eventStore.getCurrentPosition();
+        eventStore.saveEvents(streamId, Arrays.asList(permanent, expired, valid), EventStore.BEGINNING);
+
+        ((PsqlEventStore) eventStore).deleteExpiredEvents(now);
+
+        assertThat(eventStore.getEventsForStream(streamId), is(Arrays.asList(
+                new PersistedEvent(permanent, streamId, 1, start + 1),
+                new PersistedEvent(valid, streamId, 3, start + 3))));
+        assertThat("version", eventStore.getCurrentVersion(streamId), is(3));
+    }
+
+    @Test
+    public void does_not_delete_the_last_event_of_a_stream_even_when_it_has_expired() {
+        var now = Instant.now();
+        var permanent = dummyEvent("permanent");
+        var expired1 = new Envelope<Event>(new ShortLivedDummyEvent("expired 1", now.minusSeconds(2)), UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        var expired2 = new Envelope<Event>(new ShortLivedDummyEvent("expired 2", now.minusSeconds(1)), UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        var streamId = UUID.randomUUID();
+        var start = eventStore.getCurrentPosition();
+        eventStore.saveEvents(streamId, Arrays.asList(permanent, expired1, expired2), EventStore.BEGINNING);
+
+        ((PsqlEventStore) eventStore).deleteExpiredEvents(now);
+
+        var events = eventStore.getEventsForStream(streamId);
+        assertThat(events, is(Arrays.asList(
+                new PersistedEvent(permanent, streamId, 1, start + 1),
+                new PersistedEvent(expired2, streamId, 3, start + 3))));
+        var lastVersion = events.get(events.size() - 1).version;
+        eventStore.saveEvents(streamId, Arrays.asList(dummyEvent("after")), lastVersion); // doesn't throw OptimisticLockingException
+        assertThat("version", eventStore.getCurrentVersion(streamId), is(4));
+    }
+
+    @Test
+    public void reads_the_type_from_the_metadata_when_the_type_column_is_empty() {
+        var event = dummyEvent("one");
+        var streamId = UUID.randomUUID();
+        eventStore.saveEvents(streamId, Arrays.asList(event), EventStore.BEGINNING);
+        // like the events which were saved in a binary format before the type column
+        new JdbcTemplate(dataSource).update("UPDATE event SET type = NULL WHERE stream_id = ?", streamId);
+
+        assertThat(eventStore.getEventsForStream(streamId), is(Arrays.asList(
+                new PersistedEvent(event, streamId, 1, eventStore.getCurrentPosition()))));
+    }
+
+    public static class ShortLivedDummyEvent extends Struct implements ShortLivedEvent {
+        public final String message;
+        public final Instant expires;
+
+        @JsonCreator
+        public ShortLivedDummyEvent(@JsonProperty("message") String message,
+                                    @JsonProperty("expires") Instant expires) {
+            this.message = message;
+            this.expires = expires;
+        }
+
+        @Override
+        public Instant expires() {
+            return expires;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.luontola.cqrshotel.Application;
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.eventstore.EventStoreContract.DummyEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures the throughput and the latency distribution of saves as a function of
+ * the number of concurrent writers.
+ * Requires the test database to be running. Run with {@code docker-compose up -d db}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PsqlEventStore_ConcurrentWritersBenchmark {
+
+    @Param({
+            "TABLE_LOCK",
+            "SEQUENCER",
+            "GROUP_COMMIT",
+    })
+    public PsqlEventStore.Sequencing sequencing;
+
+    @Param({
+            "1",
+            "10",
+    })
+    public int batchSize;
+
+    private ConfigurableApplicationContext app;
+    private PsqlEventStore eventStore;
+    private List<Envelope<Event>> batch;
+
+    @Setup
+    public void prepare() {
+        app = new SpringApplicationBuilder(Application.class)
+                .profiles("test")
+                .web(WebApplicationType.NONE)
+                .run();
+        eventStore = new PsqlEventStore(app.getBean(DataSource.class), app.getBean(ObjectMapper.class),
+                PsqlEventStore.DEFAULT_FETCH_SIZE, sequencing);
+        batch = Stream.generate(() -> Envelope.<Event>newMessage(new DummyEvent("")))
+                .limit(batchSize)
+                .collect(Collectors.toList());
+    }
+
+    @TearDown
+    public void cleanup() {
+        app.close();
+    }
+
+    @Benchmark
+    public long saveEventsToNewStream() {
+        return eventStore.saveEvents(UUID.randomUUID(), batch, EventStore.BEGINNING);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (var threads : new int[]{1, 4, 8, 16, 32}) {
+            var opt = new OptionsBuilder()
+                    .include(PsqlEventStore_ConcurrentWritersBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .warmupIterations(5)
+                    .measurementIterations(5)
+                    .forks(1)
+                    .build();
+            new Runner(opt).run();
+        }
+    }
+}
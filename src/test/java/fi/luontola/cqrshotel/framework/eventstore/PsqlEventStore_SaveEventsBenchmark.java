@@ -0,0 +1,94 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.luontola.cqrshotel.Application;
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.eventstore.EventStoreContract.DummyEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures the commit latency of a single writer as a function of the number
+ * of events saved in one commit. Requires the test database to be running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PsqlEventStore_SaveEventsBenchmark {
+
+    @Param({
+            "1",
+            "10",
+            "50",
+            "200",
+    })
+    public int batchSize;
+
+    @Param({
+            "TABLE_LOCK",
+            "SEQUENCER",
+    })
+    public PsqlEventStore.Sequencing sequencing;
+
+    private ConfigurableApplicationContext app;
+    private PsqlEventStore eventStore;
+    private List<Envelope<Event>> batch;
+
+    @Setup
+    public void prepare() {
+        app = new SpringApplicationBuilder(Application.class)
+                .profiles("test")
+                .web(WebApplicationType.NONE)
+                .run();
+        eventStore = new PsqlEventStore(app.getBean(DataSource.class), app.getBean(ObjectMapper.class),
+                PsqlEventStore.DEFAULT_FETCH_SIZE, sequencing);
+        batch = Stream.generate(() -> Envelope.<Event>newMessage(new DummyEvent("price offered")))
+                .limit(batchSize)
+                .collect(Collectors.toList());
+    }
+
+    @TearDown
+    public void cleanup() {
+        app.close();
+    }
+
+    @Benchmark
+    public long saveEvents() {
+        return eventStore.saveEvents(UUID.randomUUID(), batch, EventStore.BEGINNING);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        var opt = new OptionsBuilder()
+                .include(PsqlEventStore_SaveEventsBenchmark.class.getSimpleName())
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,229 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.eventstore;
+
+import fi.luontola.cqrshotel.Application;
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original schema, which has a covering index over the event payloads
+ * and keeps the global position in a separate table, against the current schema.
+ * Both schemas are created from scratch in their own database schema.
+ * Prints the on-disk size of both schemas at the end. Requires the test database to be running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PsqlEventStore_SchemaBenchmark {
+
+    private static final String DATA = "{\"message\": \"price offered\", \"price\": \"EUR 100.00\", " +
+            "\"date\": \"2019-01-01\", \"expires\": \"2019-01-01T12:30:00Z\"}";
+    private static final String METADATA = "{\"messageId\": \"" + UUID.randomUUID() + "\", " +
+            "\"correlationId\": \"" + UUID.randomUUID() + "\", \"causationId\": \"" + UUID.randomUUID() + "\", " +
+            "\"type\": \"fi.luontola.cqrshotel.framework.eventstore.EventStoreContract$DummyEvent\", \"version\": 1}";
+
+    private static final int STREAMS = 1000;
+    private static final int EVENTS_PER_STREAM = 10;
+
+    public enum Layout {
+
+        V1("benchmark_v1", "classpath:db/benchmark_v1",
+                "SELECT save_events(?, 0, ? :: JSONB[], ? :: JSONB[])",
+                "SELECT e.data, e.metadata, e.stream_id, e.version, s.position " +
+                        "FROM event e " +
+                        "JOIN event_sequence s USING (stream_id, version) " +
+                        "WHERE e.stream_id = ? " +
+                        "ORDER BY e.version",
+                "SELECT e.data, e.metadata, e.stream_id, e.version, s.position " +
+                        "FROM event e " +
+                        "JOIN event_sequence s USING (stream_id, version) " +
+                        "WHERE s.position > ? " +
+                        "ORDER BY s.position"),
+
+        V2("benchmark_v2", "classpath:db/migration",
+                "SELECT save_events(?, 0, 1 :: INT2, " +
+                        "ARRAY(SELECT convert_to(t, 'UTF8') FROM unnest(? :: TEXT[]) t), " +
+                        "ARRAY(SELECT convert_to(t, 'UTF8') FROM unnest(? :: TEXT[]) t))",
+                "SELECT data, metadata, stream_id, version, position " +
+                        "FROM event " +
+                        "WHERE stream_id = ? " +
+                        "  AND position IS NOT NULL " +
+                        "ORDER BY version",
+                "SELECT data, metadata, stream_id, version, position " +
+                        "FROM event " +
+                        "WHERE position > ? " +
+                        "ORDER BY position");
+
+        final String schema;
+        final String migrations;
+        final String save;
+        final String readStream;
+        final String readAll;
+
+        Layout(String schema, String migrations, String save, String readStream, String readAll) {
+            this.schema = schema;
+            this.migrations = migrations;
+            this.save = save;
+            this.readStream = readStream;
+            this.readAll = readAll;
+        }
+    }
+
+    @Param({
+            "V1",
+            "V2",
+    })
+    public Layout layout;
+
+    private ConfigurableApplicationContext app;
+    private Connection connection;
+    private UUID[] streamIds;
+    private Array data;
+    private Array metadata;
+    private long headPosition;
+
+    @Setup
+    public void prepare() throws SQLException {
+        app = new SpringApplicationBuilder(Application.class)
+                .profiles("test")
+                .web(WebApplicationType.NONE)
+                .run();
+        var dataSource = app.getBean(DataSource.class);
+        var flyway = Flyway.configure()
+                .dataSource(dataSource)
+                .schemas(layout.schema)
+                .locations(layout.migrations)
+                .cleanDisabled(false)
+                .load();
+        flyway.clean();
+        flyway.migrate();
+
+        connection = dataSource.getConnection();
+        try (var statement = connection.createStatement()) {
+            statement.execute("SET search_path TO " + layout.schema);
+        }
+        data = connection.createArrayOf("text", new String[]{DATA});
+        metadata = connection.createArrayOf("text", new String[]{METADATA});
+
+        var batch = new String[EVENTS_PER_STREAM];
+        Arrays.fill(batch, DATA);
+        var batchData = connection.createArrayOf("text", batch);
+        Arrays.fill(batch, METADATA);
+        var batchMetadata = connection.createArrayOf("text", batch);
+        streamIds = new UUID[STREAMS];
+        for (var i = 0; i < streamIds.length; i++) {
+            streamIds[i] = UUID.randomUUID();
+            headPosition = saveEvents(streamIds[i], batchData, batchMetadata);
+        }
+    }
+
+    @TearDown
+    public void cleanup() throws SQLException {
+        try (var statement = connection.prepareStatement("SELECT pg_size_pretty(sum(pg_total_relation_size(c.oid))) " +
+                "FROM pg_class c " +
+                "JOIN pg_namespace n ON n.oid = c.relnamespace " +
+                "WHERE n.nspname = ? " +
+                "  AND c.relkind = 'r'")) {
+            statement.setString(1, layout.schema);
+            try (var rs = statement.executeQuery()) {
+                rs.next();
+                System.out.println();
+                System.out.println("Size of schema " + layout.schema + ": " + rs.getString(1));
+            }
+        }
+        connection.close();
+        app.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void refreshStatistics() throws SQLException {
+        try (var statement = connection.createStatement()) {
+            statement.execute("VACUUM ANALYZE");
+        }
+    }
+
+    @Benchmark
+    public long saveEvents() throws SQLException {
+        return saveEvents(UUID.randomUUID(), data, metadata);
+    }
+
+    @Benchmark
+    public void readStream(Blackhole bh) throws SQLException {
+        var streamId = streamIds[ThreadLocalRandom.current().nextInt(streamIds.length)];
+        try (var statement = connection.prepareStatement(layout.readStream)) {
+            statement.setObject(1, streamId);
+            read(statement, bh);
+        }
+    }
+
+    @Benchmark
+    public void readRecentEvents(Blackhole bh) throws SQLException {
+        try (var statement = connection.prepareStatement(layout.readAll)) {
+            statement.setLong(1, headPosition - 100);
+            read(statement, bh);
+        }
+    }
+
+    private long saveEvents(UUID streamId, Array data, Array metadata) throws SQLException {
+        try (var statement = connection.prepareStatement(layout.save)) {
+            statement.setObject(1, streamId);
+            statement.setArray(2, data);
+            statement.setArray(3, metadata);
+            try (var rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private static void read(PreparedStatement statement, Blackhole bh) throws SQLException {
+        try (var rs = statement.executeQuery()) {
+            while (rs.next()) {
+                bh.consume(rs.getObject(1));
+                bh.consume(rs.getObject(2));
+                bh.consume(rs.getObject(3));
+                bh.consume(rs.getInt(4));
+                bh.consume(rs.getLong(5));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        var opt = new OptionsBuilder()
+                .include(PsqlEventStore_SchemaBenchmark.class.getSimpleName())
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -7,8 +7,12 @@ package fi.luontola.cqrshotel.framework.projections;
 import com.google.common.base.Stopwatch;
 import fi.luontola.cqrshotel.framework.Envelope;
 import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.Snapshottable;
 import fi.luontola.cqrshotel.framework.eventstore.EventStore;
 import fi.luontola.cqrshotel.framework.eventstore.InMemoryEventStore;
+import fi.luontola.cqrshotel.framework.eventstore.PersistedEvent;
+import fi.luontola.cqrshotel.framework.snapshots.InMemorySnapshotStore;
+import fi.luontola.cqrshotel.framework.snapshots.ProjectionSnapshot;
 import fi.luontola.cqrshotel.framework.util.Struct;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
@@ -16,9 +20,13 @@ import org.junit.jupiter.api.Test;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
@@ -26,6 +34,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 
 @Tag("fast")
@@ -76,6 +85,100 @@ public class InMemoryProjectionTest {
         });
     }
 
+    @Test
+    public void reads_only_the_types_of_events_which_the_projection_needs() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            var projection = new SpyProjection(Set.of(DummyEvent.class));
+            var updater = new InMemoryProjection(projection, eventStore);
+            eventStore.saveEvents(UUID.randomUUID(), singletonList(one), EventStore.BEGINNING);
+            eventStore.saveEvents(UUID.randomUUID(), singletonList(Envelope.newMessage(new OtherEvent())), EventStore.BEGINNING);
+
+            updater.update();
+
+            assertThat("received events", projection.receivedEvents, is(singletonList(one.payload)));
+            assertThat("position", updater.getPosition(), is(2L));
+        });
+    }
+
+    @Test
+    public void applies_the_events_in_batches() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            var batches = new ArrayList<List<Long>>();
+            var projection = new SpyProjection() {
+                @Override
+                public int applyBatch(List<PersistedEvent> events) {
+                    batches.add(events.stream().map(event -> event.position).collect(Collectors.toList()));
+                    for (var event : events) {
+                        apply(event.getEvent());
+                    }
+                    return events.size();
+                }
+            };
+            var updater = new InMemoryProjection(projection, eventStore);
+            eventStore.saveEvents(UUID.randomUUID(), asList(one, two, three), EventStore.BEGINNING);
+
+            updater.update();
+
+            assertThat("batches", batches, is(singletonList(asList(1L, 2L, 3L))));
+            assertThat("received events", projection.receivedEvents, is(asList(one.payload, two.payload, three.payload)));
+            assertThat("position", updater.getPosition(), is(3L));
+        });
+    }
+
+    @Test
+    public void gives_the_events_which_were_not_applied_as_a_batch_to_apply_one_at_a_time() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            var projection = new SpyProjection() {
+                @Override
+                public int applyBatch(List<PersistedEvent> events) {
+                    // applies only the batches which start with the event "one"
+                    if (events.get(0).getEvent().equals(one)) {
+                        apply(events.get(0).getEvent());
+                        return 1;
+                    }
+                    return 0;
+                }
+            };
+            var updater = new InMemoryProjection(projection, eventStore);
+            eventStore.saveEvents(UUID.randomUUID(), asList(one, two, three), EventStore.BEGINNING);
+
+            updater.update();
+
+            assertThat("received events", projection.receivedEvents, is(asList(one.payload, two.payload, three.payload)));
+            assertThat("position", updater.getPosition(), is(3L));
+        });
+    }
+
+    @Test
+    public void after_a_failure_continues_from_the_failed_event() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            var failures = new AtomicInteger(0);
+            var projection = new SpyProjection() {
+                @Override
+                public int applyBatch(List<PersistedEvent> events) {
+                    throw new IllegalStateException("dummy batch failure");
+                }
+
+                @Override
+                public void apply(Envelope<Event> event) {
+                    if (event.equals(two) && failures.getAndIncrement() == 0) {
+                        throw new IllegalStateException("dummy failure");
+                    }
+                    super.apply(event);
+                }
+            };
+            var updater = new InMemoryProjection(projection, eventStore);
+            eventStore.saveEvents(UUID.randomUUID(), asList(one, two, three), EventStore.BEGINNING);
+
+            assertThrows(IllegalStateException.class, updater::update);
+            assertThat("position after failure", updater.getPosition(), is(1L));
+            updater.update();
+
+            assertThat("received events", projection.receivedEvents, is(asList(one.payload, two.payload, three.payload)));
+            assertThat("position", updater.getPosition(), is(3L));
+        });
+    }
+
     @Test
     public void awaiting_position_blocks_until_the_projection_has_been_updated() throws InterruptedException {
         assertTimeoutPreemptively(testTimeout, () -> {
@@ -134,6 +237,43 @@ public class InMemoryProjectionTest {
         });
     }
 
+    @Test
+    public void restores_the_latest_snapshot_and_replays_only_the_events_after_it() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            eventStore.saveEvents(UUID.randomUUID(), asList(one, two, three), EventStore.BEGINNING);
+            var snapshots = new InMemorySnapshotStore();
+            snapshots.saveProjectionSnapshot("SnapshottableSpyProjection", new ProjectionSnapshot<>(2L, "one,two"));
+            var projection = new SnapshottableSpyProjection();
+            var updater = new InMemoryProjection(projection, eventStore);
+            updater.enableSnapshots(snapshots, 10);
+
+            updater.update();
+
+            assertThat("restored snapshot", projection.restoredSnapshot, is("one,two"));
+            assertThat("received events", projection.receivedEvents, is(singletonList(three.payload)));
+            assertThat("position", updater.getPosition(), is(3L));
+        });
+    }
+
+    @Test
+    public void saves_a_snapshot_when_the_position_has_advanced_by_the_interval() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            var snapshots = new InMemorySnapshotStore();
+            var projection = new SnapshottableSpyProjection();
+            var updater = new InMemoryProjection(projection, eventStore);
+            updater.enableSnapshots(snapshots, 2);
+
+            eventStore.saveEvents(UUID.randomUUID(), singletonList(one), EventStore.BEGINNING);
+            updater.update();
+            assertThat("before interval", snapshots.getProjectionSnapshot("SnapshottableSpyProjection", String.class), is(Optional.empty()));
+
+            eventStore.saveEvents(UUID.randomUUID(), singletonList(two), EventStore.BEGINNING);
+            updater.update();
+            assertThat("after interval", snapshots.getProjectionSnapshot("SnapshottableSpyProjection", String.class),
+                    is(Optional.of(new ProjectionSnapshot<>(2L, "one,two"))));
+        });
+    }
+
 
     private static void sleep(int millis) {
         try {
@@ -151,10 +291,41 @@ public class InMemoryProjectionTest {
     private static class SpyProjection implements Projection {
 
         public final List<Event> receivedEvents = new ArrayList<>();
+        private final Set<Class<? extends Event>> eventTypes;
+
+        SpyProjection() {
+            this(null);
+        }
+
+        SpyProjection(Set<Class<? extends Event>> eventTypes) {
+            this.eventTypes = eventTypes;
+        }
 
         public void apply(Envelope<Event> event) {
             receivedEvents.add(event.payload);
         }
+
+        @Override
+        public Optional<Set<Class<? extends Event>>> getEventTypes() {
+            return Optional.ofNullable(eventTypes);
+        }
+    }
+
+    private static class SnapshottableSpyProjection extends SpyProjection implements Snapshottable<String> {
+
+        public String restoredSnapshot;
+
+        @Override
+        public String takeSnapshot() {
+            return receivedEvents.stream()
+                    .map(event -> ((DummyEvent) event).message)
+                    .collect(Collectors.joining(","));
+        }
+
+        @Override
+        public void restoreSnapshot(String snapshot) {
+            restoredSnapshot = snapshot;
+        }
     }
 
     private static class DummyEvent extends Struct implements Event {
@@ -164,4 +335,7 @@ public class InMemoryProjectionTest {
             this.message = message;
         }
     }
+
+    private static class OtherEvent extends Struct implements Event {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,386 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.projections;
+
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.Snapshottable;
+import fi.luontola.cqrshotel.framework.eventstore.EventStore;
+import fi.luontola.cqrshotel.framework.eventstore.InMemoryEventStore;
+import fi.luontola.cqrshotel.framework.eventstore.PersistedEvent;
+import fi.luontola.cqrshotel.framework.snapshots.InMemorySnapshotStore;
+import fi.luontola.cqrshotel.framework.snapshots.ProjectionSnapshot;
+import fi.luontola.cqrshotel.framework.util.Struct;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+@Tag("fast")
+public class SharedEventReaderTest {
+
+    private static final Duration testTimeout = Duration.ofSeconds(1);
+
+    private static final Envelope<Event> one = Envelope.newMessage(new DummyEvent("one"));
+    private static final Envelope<Event> two = Envelope.newMessage(new DummyEvent("two"));
+    private static final Envelope<Event> other = Envelope.newMessage(new OtherEvent());
+
+    private final AtomicInteger eventsRead = new AtomicInteger();
+    private final EventStore eventStore = new InMemoryEventStore() {
+        @Override
+        public Stream<PersistedEvent> streamAllEvents(long sincePosition) {
+            return super.streamAllEvents(sincePosition).peek(event -> eventsRead.incrementAndGet());
+        }
+    };
+    private final SharedEventReader reader = new SharedEventReader(eventStore);
+
+    @AfterEach
+    public void shutdown() throws InterruptedException {
+        reader.shutdown(testTimeout);
+    }
+
+    @Test
+    public void reads_each_event_only_once_for_all_projections() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            var projection1 = new SpyProjection(null);
+            var projection2 = new SpyProjection(null);
+            var updater1 = reader.subscribe(projection1);
+            var updater2 = reader.subscribe(projection2);
+            eventStore.saveEvents(UUID.randomUUID(), asList(one, two), EventStore.BEGINNING);
+
+            reader.update();
+
+            assertThat("projection 1 updated", updater1.awaitPosition(2, testTimeout), is(true));
+            assertThat("projection 2 updated", updater2.awaitPosition(2, testTimeout), is(true));
+            assertThat("projection 1 events", projection1.receivedEvents, is(asList(one.payload, two.payload)));
+            assertThat("projection 2 events", projection2.receivedEvents, is(asList(one.payload, two.payload)));
+            assertThat("events read", eventsRead.get(), is(2));
+        });
+    }
+
+    @Test
+    public void gives_each_projection_only_the_types_of_events_which_it_needs() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            var projection1 = new SpyProjection(Set.of(DummyEvent.class));
+            var projection2 = new SpyProjection(Set.of(OtherEvent.class));
+            var updater1 = reader.subscribe(projection1);
+            var updater2 = reader.subscribe(projection2);
+            eventStore.saveEvents(UUID.randomUUID(), asList(one, other, two), EventStore.BEGINNING);
+
+            reader.update();
+
+            assertThat("projection 1 updated", updater1.awaitPosition(3, testTimeout), is(true));
+            assertThat("projection 2 updated", updater2.awaitPosition(3, testTimeout), is(true));
+            assertThat("projection 1 events", projection1.receivedEvents, is(asList(one.payload, two.payload)));
+            assertThat("projection 2 events", projection2.receivedEvents, is(singletonList(other.payload)));
+        });
+    }
+
+    @Test
+    public void skips_over_events_which_no_projection_needs() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            var projection = new SpyProjection(Set.of(DummyEvent.class));
+            var updater = reader.subscribe(projection);
+            eventStore.saveEvents(UUID.randomUUID(), asList(one, other), EventStore.BEGINNING);
+
+            reader.update();
+
+            assertThat("projection updated", updater.awaitPosition(2, testTimeout), is(true));
+            assertThat("projection events", projection.receivedEvents, is(singletonList(one.payload)));
+            assertThat("reader position", reader.getPosition(), is(2L));
+        });
+    }
+
+    @Test
+    public void updates_only_new_events_since_last_update() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            var projection = new SpyProjection(null);
+            var updater = reader.subscribe(projection);
+            eventStore.saveEvents(UUID.randomUUID(), singletonList(one), EventStore.BEGINNING);
+            reader.update();
+            updater.awaitPosition(1, testTimeout);
+
+            eventStore.saveEvents(UUID.randomUUID(), singletonList(two), EventStore.BEGINNING);
+            reader.update();
+
+            assertThat("projection updated", updater.awaitPosition(2, testTimeout), is(true));
+            assertThat("projection events", projection.receivedEvents, is(asList(one.payload, two.payload)));
+            assertThat("events read", eventsRead.get(), is(2));
+        });
+    }
+
+    @Test
+    public void skips_the_events_which_a_projection_restored_from_a_snapshot_has_already_seen() {
+        assertTimeoutPreemptively(testTimeout, () -> {
+            eventStore.saveEvents(UUID.randomUUID(), asList(one, two, other), EventStore.BEGINNING);
+            var snapshots = new InMemorySnapshotStore();
+            snapshots.saveProjectionSnapshot("SnapshottableSpyProjection", new ProjectionSnapshot<>(2L, "one,two"));
+            var restored = new SnapshottableSpyProjection();
+            var restoredUpdater = new InMemoryProjection(restored, eventStore);
+            restoredUpdater.enableSnapshots(snapshots, 10);
+            reader.subscribe(restoredUpdater);
+            var rebuilt = new SpyProjection(null);
+            var rebuiltUpdater = reader.subscribe(rebuilt);
+
+            reader.update();
+
+            assertThat("restored updated", restoredUpdater.awaitPosition(3, testTimeout), is(true));
+            assertThat("restored snapshot", restored.restoredSnapshot, is("one,two"));
+            assertThat("restored events", restored.receivedEvents, is(singletonList(other.payload)));
+            assertThat("rebuilt updated", rebuiltUpdater.awaitPosition(3, testTimeout), is(true));
+            assertThat("rebuilt events", rebuilt.receivedEvents, is(asList(one.payload, two.payload, other.payload)));
+        });
+    }
+
+    @Test
+    public void a_slow_projection_does_not_lose_events_when_its_buffer_is_full() {
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            var projection = new SpyProjection(null);
+            var updater = reader.subscribe(projection);
+            var expected = new ArrayList<Event>();
+            for (int i = 0; i < 5000; i++) {
+                var event = Envelope.<Event>newMessage(new DummyEvent("event " + i));
+                eventStore.saveEvents(UUID.randomUUID(), singletonList(event), EventStore.BEGINNING);
+                expected.add(event.payload);
+            }
+
+            reader.update();
+
+            assertThat("projection updated", updater.awaitPosition(5000, Duration.ofSeconds(5)), is(true));
+            assertThat("projection events", projection.receivedEvents, is(expected));
+        });
+    }
+
+    @Test
+    public void a_failing_projection_does_not_stop_the_other_projections_from_being_updated() {
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            var healthy = new SpyProjection(null);
+            var failing = new SpyProjection(null) {
+                @Override
+                public void apply(Envelope<Event> event) {
+                    throw new IllegalStateException("dummy failure");
+                }
+            };
+            var healthyUpdater = reader.subscribe(healthy);
+            var failingUpdater = reader.subscribe(failing);
+            var expected = new ArrayList<Event>();
+            for (int i = 0; i < 5000; i++) {
+                var event = Envelope.<Event>newMessage(new DummyEvent("event " + i));
+                eventStore.saveEvents(UUID.randomUUID(), singletonList(event), EventStore.BEGINNING);
+                expected.add(event.payload);
+            }
+
+            reader.update();
+
+            assertThat("healthy projection updated", healthyUpdater.awaitPosition(5000, Duration.ofSeconds(5)), is(true));
+            assertThat("healthy projection events", healthy.receivedEvents, is(expected));
+            assertThat("failing projection position", failingUpdater.getPosition(), is(0L));
+        });
+    }
+
+    @Test
+    public void a_projection_which_fell_behind_catches_up_by_reading_the_event_store() {
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            var failures = new AtomicInteger(0);
+            var projection = new SpyProjection(null) {
+                @Override
+                public void apply(Envelope<Event> event) {
+                    if (failures.getAndIncrement() < 3) {
+                        throw new IllegalStateException("dummy failure");
+                    }
+                    super.apply(event);
+                }
+            };
+            var updater = reader.subscribe(projection);
+            var expected = new ArrayList<Event>();
+            for (int i = 0; i < 5000; i++) {
+                var event = Envelope.<Event>newMessage(new DummyEvent("event " + i));
+                eventStore.saveEvents(UUID.randomUUID(), singletonList(event), EventStore.BEGINNING);
+                expected.add(event.payload);
+            }
+            reader.update();
+
+            while (!updater.awaitPosition(5000, Duration.ofMillis(10))) {
+                updater.update(); // retry after the failures
+            }
+
+            assertThat("projection events", projection.receivedEvents, is(expected));
+        });
+    }
+
+    @Test
+    public void rebuilds_projections_which_are_partitioned_by_stream_in_parallel() {
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            var parallelReader = new SharedEventReader(eventStore, 4);
+            var projection = new PartitionedSpyProjection();
+            var updater = parallelReader.subscribe(projection);
+            var expected = new HashMap<UUID, List<Event>>();
+            for (int i = 0; i < 20; i++) {
+                var streamId = UUID.randomUUID();
+                var events = new ArrayList<Envelope<Event>>();
+                for (int j = 0; j < 100; j++) {
+                    events.add(Envelope.newMessage(new PartitionedDummyEvent(streamId, j)));
+                }
+                eventStore.saveEvents(streamId, events, EventStore.BEGINNING);
+                expected.put(streamId, events.stream().map(event -> event.payload).collect(Collectors.toList()));
+            }
+
+            parallelReader.update();
+
+            assertThat("projection updated", updater.awaitPosition(2000, Duration.ofSeconds(5)), is(true));
+            assertThat("events by stream", projection.receivedEventsByStream, is(expected));
+            assertThat("threads used", projection.threads.size(), is(greaterThan(1)));
+            parallelReader.shutdown(testTimeout);
+        });
+    }
+
+    @Test
+    public void after_a_failure_in_one_partition_does_not_reapply_the_events_of_the_other_partitions() {
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            var parallelReader = new SharedEventReader(eventStore, 4);
+            var failingStreamId = UUID.randomUUID();
+            var failed = new CountDownLatch(1);
+            var projection = new PartitionedSpyProjection() {
+                @Override
+                public void apply(Envelope<Event> event) {
+                    var payload = (PartitionedDummyEvent) event.payload;
+                    if (payload.streamId.equals(failingStreamId) && payload.index == 50 && failed.getCount() > 0) {
+                        failed.countDown();
+                        throw new IllegalStateException("dummy failure");
+                    }
+                    super.apply(event);
+                }
+            };
+            var updater = parallelReader.subscribe(projection);
+            var expected = new HashMap<UUID, List<Event>>();
+            for (int i = 0; i < 10; i++) {
+                var streamId = i == 0 ? failingStreamId : UUID.randomUUID();
+                var events = new ArrayList<Envelope<Event>>();
+                for (int j = 0; j < 100; j++) {
+                    events.add(Envelope.newMessage(new PartitionedDummyEvent(streamId, j)));
+                }
+                eventStore.saveEvents(streamId, events, EventStore.BEGINNING);
+                expected.put(streamId, events.stream().map(event -> event.payload).collect(Collectors.toList()));
+            }
+
+            parallelReader.update();
+            failed.await();
+            updater.update();
+
+            assertThat("projection updated", updater.awaitPosition(1000, Duration.ofSeconds(5)), is(true));
+            assertThat("events by stream", projection.receivedEventsByStream, is(expected));
+            parallelReader.shutdown(testTimeout);
+        });
+    }
+
+    @Test
+    public void projections_cannot_subscribe_after_events_have_been_read() {
+        reader.subscribe(new SpyProjection(null));
+        eventStore.saveEvents(UUID.randomUUID(), singletonList(one), EventStore.BEGINNING);
+        reader.update();
+
+        assertThrows(IllegalStateException.class, () -> reader.subscribe(new SpyProjection(null)));
+    }
+
+
+    private static class SpyProjection implements Projection {
+
+        public final List<Event> receivedEvents = new ArrayList<>();
+        private final Set<Class<? extends Event>> eventTypes;
+
+        SpyProjection(Set<Class<? extends Event>> eventTypes) {
+            this.eventTypes = eventTypes;
+        }
+
+        public void apply(Envelope<Event> event) {
+            receivedEvents.add(event.payload);
+        }
+
+        @Override
+        public Optional<Set<Class<? extends Event>>> getEventTypes() {
+            return Optional.ofNullable(eventTypes);
+        }
+    }
+
+    private static class SnapshottableSpyProjection extends SpyProjection implements Snapshottable<String> {
+
+        public String restoredSnapshot;
+
+        SnapshottableSpyProjection() {
+            super(null);
+        }
+
+        @Override
+        public String takeSnapshot() {
+            return receivedEvents.stream()
+                    .map(event -> ((DummyEvent) event).message)
+                    .collect(Collectors.joining(","));
+        }
+
+        @Override
+        public void restoreSnapshot(String snapshot) {
+            restoredSnapshot = snapshot;
+        }
+    }
+
+    private static class PartitionedSpyProjection implements Projection {
+
+        public final Map<UUID, List<Event>> receivedEventsByStream = new ConcurrentHashMap<>();
+        public final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+        public void apply(Envelope<Event> event) {
+            var streamId = ((PartitionedDummyEvent) event.payload).streamId;
+            receivedEventsByStream.computeIfAbsent(streamId, id -> new ArrayList<>()).add(event.payload);
+            threads.add(Thread.currentThread());
+        }
+
+        @Override
+        public boolean isPartitionedByStream() {
+            return true;
+        }
+    }
+
+    private static class DummyEvent extends Struct implements Event {
+        public final String message;
+
+        private DummyEvent(String message) {
+            this.message = message;
+        }
+    }
+
+    private static class OtherEvent extends Struct implements Event {
+    }
+
+    private static class PartitionedDummyEvent extends Struct implements Event {
+        public final UUID streamId;
+        public final int index;
+
+        private PartitionedDummyEvent(UUID streamId, int index) {
+            this.streamId = streamId;
+            this.index = index;
+        }
+    }
+}
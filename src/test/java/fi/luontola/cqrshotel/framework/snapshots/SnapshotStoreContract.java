@@ -0,0 +1,128 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.snapshots;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import fi.luontola.cqrshotel.framework.util.Struct;
+import org.junit.Assert;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public abstract class SnapshotStoreContract {
+
+    protected SnapshotStore snapshotStore;
+    private final UUID streamId = UUID.randomUUID();
+    private final String projectionName = "DummyProjection-" + UUID.randomUUID();
+
+    @BeforeEach
+    public final void parentInit() {
+        init();
+        Assert.assertNotNull("snapshotStore was not set", snapshotStore);
+    }
+
+    protected abstract void init();
+
+    @Test
+    public void no_snapshot() {
+        assertThat(snapshotStore.getSnapshot(streamId, DummyState.class), is(Optional.empty()));
+    }
+
+    @Test
+    public void saving_a_snapshot() {
+        var snapshot = new Snapshot<>(5, new DummyState("foo"));
+
+        snapshotStore.saveSnapshot(streamId, snapshot);
+
+        assertThat(snapshotStore.getSnapshot(streamId, DummyState.class), is(Optional.of(snapshot)));
+    }
+
+    @Test
+    public void newer_snapshot_replaces_the_older_snapshot() {
+        var older = new Snapshot<>(5, new DummyState("older"));
+        var newer = new Snapshot<>(10, new DummyState("newer"));
+
+        snapshotStore.saveSnapshot(streamId, older);
+        snapshotStore.saveSnapshot(streamId, newer);
+
+        assertThat(snapshotStore.getSnapshot(streamId, DummyState.class), is(Optional.of(newer)));
+    }
+
+    @Test
+    public void older_snapshot_does_not_replace_the_newer_snapshot() {
+        var older = new Snapshot<>(5, new DummyState("older"));
+        var newer = new Snapshot<>(10, new DummyState("newer"));
+
+        snapshotStore.saveSnapshot(streamId, newer);
+        snapshotStore.saveSnapshot(streamId, older);
+
+        assertThat(snapshotStore.getSnapshot(streamId, DummyState.class), is(Optional.of(newer)));
+    }
+
+    @Test
+    public void snapshot_of_a_different_type_is_ignored() {
+        snapshotStore.saveSnapshot(streamId, new Snapshot<>(5, new DummyState("foo")));
+
+        assertThat(snapshotStore.getSnapshot(streamId, String.class), is(Optional.empty()));
+    }
+
+    @Test
+    public void no_projection_snapshot() {
+        assertThat(snapshotStore.getProjectionSnapshot(projectionName, DummyState.class), is(Optional.empty()));
+    }
+
+    @Test
+    public void saving_a_projection_snapshot() {
+        var snapshot = new ProjectionSnapshot<>(5, new DummyState("foo"));
+
+        snapshotStore.saveProjectionSnapshot(projectionName, snapshot);
+
+        assertThat(snapshotStore.getProjectionSnapshot(projectionName, DummyState.class), is(Optional.of(snapshot)));
+    }
+
+    @Test
+    public void newer_projection_snapshot_replaces_the_older_snapshot() {
+        var older = new ProjectionSnapshot<>(5, new DummyState("older"));
+        var newer = new ProjectionSnapshot<>(10, new DummyState("newer"));
+
+        snapshotStore.saveProjectionSnapshot(projectionName, older);
+        snapshotStore.saveProjectionSnapshot(projectionName, newer);
+
+        assertThat(snapshotStore.getProjectionSnapshot(projectionName, DummyState.class), is(Optional.of(newer)));
+    }
+
+    @Test
+    public void older_projection_snapshot_does_not_replace_the_newer_snapshot() {
+        var older = new ProjectionSnapshot<>(5, new DummyState("older"));
+        var newer = new ProjectionSnapshot<>(10, new DummyState("newer"));
+
+        snapshotStore.saveProjectionSnapshot(projectionName, newer);
+        snapshotStore.saveProjectionSnapshot(projectionName, older);
+
+        assertThat(snapshotStore.getProjectionSnapshot(projectionName, DummyState.class), is(Optional.of(newer)));
+    }
+
+    @Test
+    public void projection_snapshot_of_a_different_type_is_ignored() {
+        snapshotStore.saveProjectionSnapshot(projectionName, new ProjectionSnapshot<>(5, new DummyState("foo")));
+
+        assertThat(snapshotStore.getProjectionSnapshot(projectionName, String.class), is(Optional.empty()));
+    }
+
+    public static class DummyState extends Struct {
+        public final String value;
+
+        @JsonCreator
+        public DummyState(@JsonProperty("value") String value) {
+            this.value = value;
+        }
+    }
+}
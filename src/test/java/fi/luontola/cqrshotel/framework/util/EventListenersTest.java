@@ -8,7 +8,6 @@ import fi.luontola.cqrshotel.framework.Event;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -68,7 +67,7 @@ public class EventListenersTest {
             eventListeners.send(new DummyEvent1());
         });
         assertThat(e.getMessage(), is("event listener failed for event: EventListenersTest.DummyEvent1[]"));
-        assertThat(e.getCause(), is(instanceOf(InvocationTargetException.class)));
+        assertThat(e.getCause(), is(instanceOf(IllegalArgumentException.class)));
     }
 
 
@@ -0,0 +1,111 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.framework.util;
+
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.reservation.Reservation;
+import fi.luontola.cqrshotel.reservation.events.PriceOffered;
+import fi.luontola.cqrshotel.room.events.RoomCreated;
+import fi.luontola.cqrshotel.room.queries.RoomAvailabilityView;
+import org.javamoney.moneta.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many events per second can be dispatched to the {@link EventListener}s
+ * of an aggregate and of a projection. The "reflection" benchmark is how the events
+ * were dispatched before: a {@link Method#invoke} for every event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventListeners_DispatchBenchmark {
+
+    private static final int EVENTS = 1000;
+
+    private Reservation reservation;
+    private List<Event> reservationEvents;
+    private Method reservationListener;
+    private RoomAvailabilityView roomAvailabilityView;
+    private List<Envelope<Event>> roomEvents;
+
+    @Setup
+    public void prepare() throws NoSuchMethodException {
+        // the events replace each other, so that the state won't grow during the benchmark
+        reservation = new Reservation();
+        reservationEvents = new ArrayList<>();
+        var reservationId = UUID.randomUUID();
+        var arrival = LocalDate.of(2019, 1, 1);
+        var expires = Instant.now();
+        for (var i = 0; i < EVENTS; i++) {
+            reservationEvents.add(new PriceOffered(reservationId, arrival.plusDays(i % 30), Money.of(100, "EUR"), expires));
+        }
+        reservationListener = Reservation.class.getDeclaredMethod("apply", PriceOffered.class);
+        reservationListener.setAccessible(true);
+
+        roomAvailabilityView = new RoomAvailabilityView();
+        roomEvents = new ArrayList<>();
+        var roomIds = new ArrayList<UUID>();
+        for (var i = 0; i < 30; i++) {
+            roomIds.add(UUID.randomUUID());
+        }
+        for (var i = 0; i < EVENTS; i++) {
+            roomEvents.add(Envelope.newMessage(new RoomCreated(roomIds.get(i % roomIds.size()), String.valueOf(i))));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public Reservation reservation() {
+        reservation.loadFromHistory(reservationEvents);
+        return reservation;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public Reservation reservation_reflection() throws ReflectiveOperationException {
+        for (var event : reservationEvents) {
+            reservationListener.invoke(reservation, event);
+        }
+        return reservation;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public RoomAvailabilityView roomAvailabilityView() {
+        for (var event : roomEvents) {
+            roomAvailabilityView.apply(event);
+        }
+        return roomAvailabilityView;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        var opt = new OptionsBuilder()
+                .include(EventListeners_DispatchBenchmark.class.getSimpleName())
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,108 @@
+// Copyright © 2016-2019 Esko Luontola
+// This software is released under the Apache License 2.0.
+// The license text is at http://www.apache.org/licenses/LICENSE-2.0
+
+package fi.luontola.cqrshotel.reservation;
+
+import fi.luontola.cqrshotel.framework.Envelope;
+import fi.luontola.cqrshotel.framework.Event;
+import fi.luontola.cqrshotel.framework.eventstore.EventStore;
+import fi.luontola.cqrshotel.framework.eventstore.InMemoryEventStore;
+import fi.luontola.cqrshotel.framework.snapshots.InMemorySnapshotStore;
+import fi.luontola.cqrshotel.framework.snapshots.Snapshot;
+import fi.luontola.cqrshotel.reservation.events.PriceOffered;
+import org.javamoney.moneta.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to load a reservation which has been searched for repeatedly,
+ * so that its stream is long but its state is small. With snapshots the load time
+ * should stay constant as the stream grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReservationRepo_LoadBenchmark {
+
+    private static final int SNAPSHOT_INTERVAL = 100;
+
+    @Param({
+            "10",
+            "100",
+            "1000",
+            "10000",
+    })
+    public int streamLength;
+
+    @Param({
+            "false",
+            "true",
+    })
+    public boolean snapshots;
+
+    private ReservationRepo repo;
+    private UUID reservationId;
+
+    @Setup
+    public void prepare() {
+        var eventStore = new InMemoryEventStore();
+        var snapshotStore = new InMemorySnapshotStore();
+        repo = new ReservationRepo(eventStore);
+        if (snapshots) {
+            repo.enableSnapshots(snapshotStore, SNAPSHOT_INTERVAL);
+        }
+        reservationId = UUID.randomUUID();
+
+        // on average there are half a snapshot interval of events after the latest snapshot
+        var totalEvents = streamLength + SNAPSHOT_INTERVAL / 2;
+        var batchSize = 10;
+        var arrival = LocalDate.of(2019, 1, 1);
+        var expires = Instant.now();
+        for (var version = EventStore.BEGINNING; version < totalEvents; version += batchSize) {
+            var events = new ArrayList<Envelope<Event>>();
+            for (var i = 0; i < batchSize; i++) {
+                var date = arrival.plusDays((version + i) % 30);
+                events.add(Envelope.newMessage(new PriceOffered(reservationId, date, Money.of(100, "EUR"), expires)));
+            }
+            eventStore.saveEvents(reservationId, events, version);
+
+            var newVersion = version + batchSize;
+            if (snapshots && newVersion % SNAPSHOT_INTERVAL == 0) {
+                // the same snapshot as Repository.save would take
+                var reservation = repo.getById(reservationId);
+                snapshotStore.saveSnapshot(reservationId, new Snapshot<>(newVersion, reservation.takeSnapshot()));
+            }
+        }
+    }
+
+    @Benchmark
+    public Reservation load() {
+        return repo.getById(reservationId);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        var opt = new OptionsBuilder()
+                .include(ReservationRepo_LoadBenchmark.class.getSimpleName())
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+}